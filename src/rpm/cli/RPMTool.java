@@ -13,7 +13,7 @@ import rpm.format.rpm.RPM;
 import xstandard.fs.FSFile;
 import xstandard.fs.FSUtil;
 import xstandard.fs.accessors.DiskFile;
-import java.io.File;
+import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import rpm.format.rpm.RPMMetaData;
@@ -39,6 +39,7 @@ public class RPMTool {
 		new ArgumentPattern("inrelfile", "An YML file to import external relocations from.", ArgumentType.STRING, null, "--in-relocations-yml"),
 		new ArgumentPattern("outrelfile", "An YML file to export external relocations into.", ArgumentType.STRING, null, "--out-relocations-yml"),
 		new ArgumentPattern("genreloc", "Generate relocation data from special function names.", ArgumentType.BOOLEAN, false, "--generate-relocations"),
+		new ArgumentPattern("veneers", "Share far Thumb branches through a veneer pool.", ArgumentType.BOOLEAN, false, "--thumb-veneers"),
 		new ArgumentPattern("strip", "Strip excess symbols and name strings.", ArgumentType.BOOLEAN, false, "--strip")
 	};
 
@@ -101,6 +102,9 @@ public class RPMTool {
 						System.out.println("Can not generate external relocations without ESDB!");
 					}
 				}
+				if (bld.getContent("veneers").booleanValue()) {
+					System.out.println("Redirected " + rpm.allocateThumbBranchVeneers() + " Thumb branches through veneers.");
+				}
 				if (bld.getContent("strip").booleanValue()) {
 					rpm.strip();
 					System.out.println("Stripped executable.");
@@ -142,7 +146,9 @@ public class RPMTool {
 				}
 
 				if (isElf || input.contents.size() > 1) {
-					FSUtil.writeBytesToFile(new File(outPath), rpm.getBytes(fourCC));
+					try (FileOutputStream out = new FileOutputStream(outPath)) {
+						rpm.write(out, fourCC, false);
+					}
 				}
 			} else {
 				System.out.println("No input given.\n");
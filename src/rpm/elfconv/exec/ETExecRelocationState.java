@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import rpm.elfconv.ExternalSymbolDB;
+import rpm.format.rpm.RPMLog;
 import xstandard.math.MathEx;
 
 /**
@@ -23,7 +24,8 @@ public class ETExecRelocationState {
 		for (ExecElfSection c : sections){
 			sourceSectionOffsets.put(c.id, c.getOriginalSectionOffset());
 			targetSectionOffsets.put(c.id, targetOffset);
-			System.out.println("section " + c.type + " size " + c.getSectionSize() + " placed at " + Integer.toHexString(targetOffset) + " orig " + c.getOriginalSectionOffset());
+			int placedAt = targetOffset;
+			RPMLog.debug(() -> "section " + c.type + " size " + c.getSectionSize() + " placed at " + Integer.toHexString(placedAt) + " orig " + c.getOriginalSectionOffset());
 			targetOffset += c.getSectionSize();
 			targetOffset = MathEx.padInteger(targetOffset, 4);
 		}
@@ -13,6 +13,7 @@ import xstandard.arm.elf.format.ELF;
 import xstandard.arm.elf.format.sections.ELFSection;
 import xstandard.arm.elf.format.sections.ELFSymbolSection;
 import rpm.format.rpm.RPM;
+import rpm.format.rpm.RPMLog;
 import rpm.format.rpm.RPMRelTargetType;
 import rpm.format.rpm.RPMRelocation;
 import rpm.format.rpm.RPMRelocationSource;
@@ -163,7 +164,7 @@ public class ExecElfSection {
 								} else {
 									int targetSectionOffset = state.getTargetSectionOffsetById(symb.sectionIndex);
 									if (targetSectionOffset == -1) {
-										System.err.println("WARN: Could not find section for symbol: " + symb + " at " + Integer.toHexString(symbOffs));
+										RPMLog.warn(() -> "WARN: Could not find section for symbol: " + symb + " at " + Integer.toHexString(symbOffs));
 									} else {
 										int srcSectionOffset = state.getSourceSectionOffsetById(symb.sectionIndex);
 										int finalSymbOffset = getSymbolValue(symb) - srcSectionOffset + targetSectionOffset;
@@ -244,7 +245,7 @@ public class ExecElfSection {
 								String funcName = findNameOfFunction(brnchAddr);
 								int externalOffset = efdb.getOffsetOfFunc(funcName);
 								if (externalOffset != 0) {
-									System.out.println("Relocating external function " + funcName);
+									RPMLog.debug(() -> "Relocating external function " + funcName);
 									buf.seek(pos);
 									ThumbAssembler.writeBranchLinkInstruction(buf, externalOffset);
 									
@@ -270,8 +271,8 @@ public class ExecElfSection {
 	}
 	
 	private RPMSymbol findRPMFuncByAddr(int addr){
-		for (RPMSymbol s : rpm.symbols){
-			if (s.type.isFunction() && !s.isImportSymbol() && s.getAddrAbs() == addr){
+		for (RPMSymbol s : rpm.findSymbolsByAddrAbs(addr)){
+			if (s.type.isFunction()){
 				return s;
 			}
 		}
@@ -13,6 +13,7 @@ import xstandard.arm.elf.format.sections.ELFRelocationSectionBase;
 import xstandard.arm.elf.format.sections.ELFSection;
 import xstandard.arm.elf.format.sections.ELFSymbolSection;
 import rpm.format.rpm.RPM;
+import rpm.format.rpm.RPMLog;
 import rpm.format.rpm.RPMRelocation;
 import rpm.format.rpm.RPMRelocationSource;
 import rpm.format.rpm.RPMSymbol;
@@ -67,7 +68,7 @@ public class ETRel2RPMConverter implements IElf2RpmConverter {
 				ELFRelocationSectionBase rel = (ELFRelocationSectionBase) sec;
 				relSections.add(rel);
 			} else {
-				System.out.println("Skipping section " + sec.header.name + " (idx " + elf.getSectionIndex(sec) + ")");
+				RPMLog.debug(() -> "Skipping section " + sec.header.name + " (idx " + elf.getSectionIndex(sec) + ")");
 			}
 		}
 
@@ -262,7 +263,7 @@ public class ETRel2RPMConverter implements IElf2RpmConverter {
 							}
 							rel.source = new RPMRelocationSource(rpm, s);
 							if (s.type == RPMSymbolType.FUNCTION_THM) {
-								System.out.println("Creating ARM->Thumb helper function for " + s.name);
+								RPMLog.debug(() -> "Creating ARM->Thumb helper function for " + s.name);
 								ELFSymbolSection.ELFSymbol fromArm = helperFuncMap.get(es);
 								if (fromArm == null) {
 									throw new NullPointerException();
@@ -5,10 +5,18 @@ import xstandard.fs.FSFile;
 import xstandard.text.FormattingUtils;
 import xstandard.io.InvalidMagicException;
 import xstandard.io.util.StringIO;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -17,15 +25,16 @@ import xstandard.fs.accessors.DiskFile;
 import xstandard.gui.file.ExtensionFilter;
 import xstandard.io.base.iface.IOStream;
 import xstandard.io.base.impl.ext.data.DataIOStream;
-import xstandard.io.structs.StringTable;
 import xstandard.io.structs.TemporaryOffset;
 import xstandard.io.structs.TemporaryValue;
 import xstandard.math.MathEx;
-import xstandard.util.ArraysEx;
 import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
 
 /**
  * Relocatable Program Module
@@ -59,21 +68,37 @@ public class RPM {
 
 	private int baseAddress = -1;
 
-	public List<RPMSymbol> symbols = new ArrayList<>();
+	public List<RPMSymbol> symbols = new TrackedList<>();
 	public List<RPMSymbol> sinitSymbols = new ArrayList<>();
 	public List<RPMSymbol> sfiniSymbols = new ArrayList<>();
-	public List<RPMRelocation> relocations = new ArrayList<>();
+	public List<RPMRelocation> relocations = new TrackedList<>();
 	public RPMMetaData metaData = new RPMMetaData();
 
 	private RPMExternalSymbolResolver extResolver;
 
+	private final RPMSymbolIndex symbolIndex = new RPMSymbolIndex(this);
+	private final RPMSymbolAddressIndex symbolAddressIndex = new RPMSymbolAddressIndex(this);
+	private final RPMRelocationAddressIndex relocationAddressIndex = new RPMRelocationAddressIndex(this);
+
+	private RPMLayout layout;
+	private int layoutModCount;
+	private RPMRelocationPlan relocationPlan;
+	private RPMLayout relocationPlanLayout;
+
 	private DataIOStream code;
 	public int bssSize;
 
 	public RPM(FSFile fsf) {
-		this(fsf.getBytes());
+		this(fsf, null);
 	}
 
+	/**
+	 * Reads a program module from a file. The file is read into an array rather than mapped, so that it
+	 * is not held open and can be overwritten right after.
+	 *
+	 * @param fsf The file to read from.
+	 * @param fourCC Four character magic to validate files with.
+	 */
 	public RPM(FSFile fsf, String fourCC) {
 		this(fsf.getBytes(), fourCC);
 	}
@@ -104,221 +129,244 @@ public class RPM {
 	 */
 	public RPM(IOStream io, String fourCC, int startPos, int endPos) {
 		try {
-			if (fourCC == null) {
-				fourCC = RPM_PROLOG_MAGIC;
+			DataIOStream in = new DataIOStream(io);
+			if (startPos == -1) {
+				startPos = in.getPosition();
 			}
 			if (endPos == -1) {
 				endPos = io.getLength();
 			}
+			byte[] data = new byte[endPos - startPos];
+			in.seek(startPos);
+			in.read(data);
+			read(ByteBuffer.wrap(data), fourCC);
+		} catch (IOException ex) {
+			Logger.getLogger(RPM.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
 
-			RPMReader reader = new RPMReader(io);
+	/**
+	 * Reads a program module from a byte buffer. All sections are decoded straight from the buffer, only
+	 * the code segment is copied out of it.
+	 *
+	 * @param buf A buffer whose remaining content is the module.
+	 * @param fourCC Four character magic to validate files with.
+	 */
+	public RPM(ByteBuffer buf, String fourCC) {
+		try {
+			read(buf, fourCC);
+		} catch (IOException ex) {
+			Logger.getLogger(RPM.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
 
-			int version = 0xFF;
+	public RPM(File file) {
+		this(file, null);
+	}
 
-			if (startPos != -1) {
-				reader.seek(startPos);
-			}
-			if (StringIO.checkMagic(reader, fourCC)) { //dlxf prolog
-				int fileSize = reader.readInt(); //unpacked if version over REV_BSS_EXPANSION
-				reader.seek(reader.readInt() + startPos);
-				if (!StringIO.checkMagic(reader, RPM_DLLEXEC_HEADER_MAGIC)) {
-					throw new InvalidMagicException("Incorrect RPM DllExec header!");
-				}
-			} else { //legacy
-				reader.seek(endPos - RPM_FOOTER_SIZE);
-				if (!StringIO.checkMagic(reader, RPM_LEGACY_MAGIC)) {
-					reader.seek(endPos - RPM_FOOTER_SIZE_LEGACY);
-					if (!StringIO.checkMagic(reader, RPM_LEGACY_MAGIC)) {
-						throw new InvalidMagicException("Not an RPM file!");
-					}
-				}
-				version = reader.read();
-			}
+	/**
+	 * Reads a program module from a file mapped into memory, without copying the file onto the heap.
+	 *
+	 * @param file The file to read from.
+	 * @param fourCC Four character magic to validate files with.
+	 */
+	public RPM(File file, String fourCC) {
+		try {
+			read(mapFile(file), fourCC);
+		} catch (IOException ex) {
+			Logger.getLogger(RPM.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
 
-			if (startPos != 0) {
-				reader.setBase(-startPos);
+	/**
+	 * Maps a file into memory as a read-only byte buffer.
+	 *
+	 * @param file The file to map.
+	 * @return A buffer backed by the mapped file.
+	 * @throws IOException
+	 */
+	public static ByteBuffer mapFile(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	private void read(ByteBuffer buf, String fourCC) throws IOException {
+		RPMReader reader = new RPMReader(buf);
+		RPMHeader header = RPMHeader.read(reader, fourCC);
+		bssSize = header.bssSize;
+
+		readMetaDataSection(reader, header);
+		readSymbolSections(reader, header);
+		readRelocationSection(reader, header);
+		readCodeSegment(reader, header);
+	}
+
+	/**
+	 * Reads the META section of a module into this RPM's metadata.
+	 *
+	 * @param reader An RPMReader set up for the module.
+	 * @param header Header of the module.
+	 * @throws IOException
+	 */
+	void readMetaDataSection(RPMReader reader, RPMHeader header) throws IOException {
+		if (header.metaDataOffset >= 0) {
+			reader.seek(header.metaDataOffset);
+			if (!reader.checkMagic(META_MAGIC)) {
+				throw new InvalidMagicException("META section not present!");
 			}
+			metaData.readMetaData(reader);
+		}
+	}
 
-			int infoSectionOffset = -1;
-			if (version != 0xFF) {
-				version = version - '0';
-				reader.setVersion(version);
-			} else {
-				version = reader.readInt();
-				reader.setVersion(version);
-				if (reader.versionOver(RPMRevisions.REV_BSS_EXPANSION)) {
-					reader.setHeaderOffsetBase(reader.getPosition() - Integer.BYTES * 2);
-				}
-				if (reader.versionOver(RPMRevisions.REV_PRODUCT_INFO)) {
-					if (reader.versionOver(RPMRevisions.REV_INFO_SECTION)) {
-						infoSectionOffset = reader.readHeaderOffset();
-						if (reader.versionOver(RPMRevisions.REV_BSS_EXPANSION)) {
-							bssSize = reader.readInt();
-							int headerSectionSize = reader.readInt();
-						} else {
-							reader.skipBytes(4); //reserved
-						}
-					} else {
-						//product ID and product version fields. DISCONTINUED.
-						reader.skipBytes(8);
-					}
-				} else {
-					reader.skipBytes(8);
-				}
+	/**
+	 * Reads the SYM section and the static initializer/finalizer arrays of a module.
+	 *
+	 * @param reader An RPMReader set up for the module.
+	 * @param header Header of the module.
+	 * @throws IOException
+	 */
+	void readSymbolSections(RPMReader reader, RPMHeader header) throws IOException {
+		if (header.symbolsOffset >= 0) {
+			reader.seek(header.symbolsOffset);
+			if (!reader.checkMagic(SYM_MAGIC)) {
+				throw new InvalidMagicException("SYM section not present!");
 			}
-			int symbolsOffset;
-			int relocationsOffset;
-			int stringsOffset = -1;
-			int codeOffset = 0;
-			int codeSize;
-			int metaDataOffset = -1;
-			int sinitOffset = -1;
-			int sfiniOffset = -1;
-
-			if (infoSectionOffset == -1) {
-				symbolsOffset = reader.readInt();
-				relocationsOffset = reader.readInt();
-				if (reader.versionOver(RPMRevisions.REV_SMALL_SYMBOLS)) {
-					stringsOffset = reader.readInt();
-				}
-				codeSize = reader.readInt();
-			} else {
-				//RPM v. REV_INFO_SECTION+
-				reader.seek(infoSectionOffset);
-				if (!StringIO.checkMagic(reader, INFO_MAGIC)) {
-					throw new InvalidMagicException("INFO section not present!");
-				}
-				symbolsOffset = reader.readHeaderOffset();
-				relocationsOffset = reader.readHeaderOffset();
-				stringsOffset = reader.readHeaderOffset();
-				if (reader.versionOver(RPMRevisions.REV_INDEPENDENT_CODE_SEG)) {
-					codeOffset = reader.readInt();
-				}
-				codeSize = reader.readInt();
-				if (reader.versionOver(RPMRevisions.REV_SINIT_SFINI)) {
-					sinitOffset = reader.readHeaderOffset();
-					sfiniOffset = reader.readHeaderOffset();
-				}
-				metaDataOffset = reader.readHeaderOffset();
+			if (reader.versionOver(RPMRevisions.REV_EXTERN_LISTS)) {
+				int symtabExternModuleListOffset = reader.readHeaderOffset();
 			}
-
-			if (stringsOffset >= 0) {
-				reader.seek(stringsOffset);
-				if (!StringIO.checkMagic(reader, STR_MAGIC)) {
-					throw new InvalidMagicException("STR section not present!");
-				}
-				reader.setStrTableOffsHere();
+			int firstExportSymbolIdx = -1;
+			int firstImportSymbolIdx = -1;
+			int exportSymbolCount = 0;
+			int importSymbolCount = 0;
+			int exportSymbolHashTableOffset = -1;
+			if (reader.versionOver(RPMRevisions.REV_IMPORT_EXPORT_SYMBOL_HASHTABLES)) {
+				firstExportSymbolIdx = reader.readUnsignedShort();
+				exportSymbolCount = reader.readUnsignedShort();
+				firstImportSymbolIdx = reader.readUnsignedShort();
+				importSymbolCount = reader.readUnsignedShort();
+				exportSymbolHashTableOffset = reader.readHeaderOffset();
 			}
-
-			if (metaDataOffset >= 0) {
-				reader.seek(metaDataOffset);
-				if (!StringIO.checkMagic(reader, META_MAGIC)) {
-					throw new InvalidMagicException("META section not present!");
-				}
-				metaData.readMetaData(reader);
+			int symbolCount = reader.aligned() ? reader.readInt() : reader.readUnsignedShort();
+			for (int i = 0; i < symbolCount; i++) {
+				symbols.add(reader.getDecoder().readSymbol(this, reader));
 			}
 
-			if (symbolsOffset >= 0) {
-				reader.seek(symbolsOffset);
-				if (!StringIO.checkMagic(reader, SYM_MAGIC)) {
-					throw new InvalidMagicException("SYM section not present!");
-				}
-				if (reader.versionOver(RPMRevisions.REV_EXTERN_LISTS)) {
-					int symtabExternModuleListOffset = reader.readHeaderOffset();
-				}
-				int firstExportSymbolIdx = -1;
-				int firstImportSymbolIdx = -1;
-				int exportSymbolCount = 0;
-				int importSymbolCount = 0;
-				int exportSymbolHashTableOffset = -1;
-				if (reader.versionOver(RPMRevisions.REV_IMPORT_EXPORT_SYMBOL_HASHTABLES)) {
-					firstExportSymbolIdx = reader.readUnsignedShort();
-					exportSymbolCount = reader.readUnsignedShort();
-					firstImportSymbolIdx = reader.readUnsignedShort();
-					importSymbolCount = reader.readUnsignedShort();
-					exportSymbolHashTableOffset = reader.readHeaderOffset();
-				}
-				int symbolCount = reader.aligned() ? reader.readInt() : reader.readUnsignedShort();
-				for (int i = 0; i < symbolCount; i++) {
-					symbols.add(new RPMSymbol(this, reader));
-				}
+			if (firstExportSymbolIdx != -1) {
+				int exportSymbolEnd = firstExportSymbolIdx + exportSymbolCount;
 
-				if (firstExportSymbolIdx != -1) {
-					int exportSymbolEnd = firstExportSymbolIdx + exportSymbolCount;
-
-					int[] hashTable = new int[exportSymbolEnd - firstExportSymbolIdx];
-					if (exportSymbolHashTableOffset != -1) {
-						reader.seek(exportSymbolHashTableOffset);
-						for (int i = 0; i < hashTable.length; i++) {
-							hashTable[i] = reader.readInt();
-						}
+				int[] hashTable = new int[exportSymbolEnd - firstExportSymbolIdx];
+				if (exportSymbolHashTableOffset != -1) {
+					reader.seek(exportSymbolHashTableOffset);
+					for (int i = 0; i < hashTable.length; i++) {
+						hashTable[i] = reader.readInt();
 					}
+				}
 
-					for (int i = firstExportSymbolIdx, hashIdx = 0; i < exportSymbolEnd; i++, hashIdx++) {
-						RPMSymbol s = symbols.get(i);
-						if (s.nameHash != 0) {
-							System.out.println("Symbol " + Integer.toHexString(s.nameHash) + " already has a hash assigned!!");
-						}
-						s.nameHash = hashTable[hashIdx];
+				for (int i = firstExportSymbolIdx, hashIdx = 0; i < exportSymbolEnd; i++, hashIdx++) {
+					RPMSymbol s = symbols.get(i);
+					if (s.nameHash != 0) {
+						RPMLog.warn(() -> "Symbol " + Integer.toHexString(s.nameHash) + " already has a hash assigned!!");
 					}
-				}
-				
-				if (sinitOffset != -1) {
-					reader.seek(sinitOffset);
-					readSymRefArray(reader, sinitOffset, sinitSymbols);
-				}
-				if (sfiniOffset != -1) {
-					reader.seek(sfiniOffset);
-					readSymRefArray(reader, sfiniOffset, sfiniSymbols);
+					s.nameHash = hashTable[hashIdx];
 				}
 			}
 
-			if (relocationsOffset >= 0) {
-				reader.seek(relocationsOffset);
-				if (!StringIO.checkMagic(reader, REL_MAGIC)) {
-					throw new InvalidMagicException("REL section not present!");
+			if (header.sinitOffset != -1) {
+				reader.seek(header.sinitOffset);
+				readSymRefArray(reader, header.sinitOffset, sinitSymbols);
+			}
+			if (header.sfiniOffset != -1) {
+				reader.seek(header.sfiniOffset);
+				readSymRefArray(reader, header.sfiniOffset, sfiniSymbols);
+			}
+		}
+	}
+
+	/**
+	 * Reads the REL section of a module. The symbols have to be read beforehand.
+	 *
+	 * @param reader An RPMReader set up for the module.
+	 * @param header Header of the module.
+	 * @throws IOException
+	 */
+	void readRelocationSection(RPMReader reader, RPMHeader header) throws IOException {
+		if (header.relocationsOffset >= 0) {
+			reader.seek(header.relocationsOffset);
+			if (!reader.checkMagic(REL_MAGIC)) {
+				throw new InvalidMagicException("REL section not present!");
+			}
+			baseAddress = reader.readInt();
+			if (reader.versionOver(RPMRevisions.REV_SEPARATE_RELOCATIONS)) {
+				int internalRelocationsOffs = reader.readHeaderOffset();
+				int internalImportRelocationsOffs = -1;
+				if (reader.versionOver(RPMRevisions.REV_IMPORT_RELOCATION_LIST)) {
+					internalImportRelocationsOffs = reader.readHeaderOffset();
 				}
-				baseAddress = reader.readInt();
-				if (reader.versionOver(RPMRevisions.REV_SEPARATE_RELOCATIONS)) {
-					int internalRelocationsOffs = reader.readHeaderOffset();
-					int internalImportRelocationsOffs = -1;
-					if (reader.versionOver(RPMRevisions.REV_IMPORT_RELOCATION_LIST)) {
-						internalImportRelocationsOffs = reader.readHeaderOffset();
-					}
-					int externalRelocationsOffs = reader.readHeaderOffset();
+				int externalRelocationsOffs = reader.readHeaderOffset();
+				int relocExternModuleListOffset = reader.readHeaderOffset();
+
+				readRelocationLists(this, reader, relocations, readExternModuleList(reader, relocExternModuleListOffset),
+					internalImportRelocationsOffs,
+					internalRelocationsOffs,
+					externalRelocationsOffs
+				);
+			} else {
+				String[] externModuleList = null;
+				if (reader.versionOver(RPMRevisions.REV_EXTERN_LISTS)) {
 					int relocExternModuleListOffset = reader.readHeaderOffset();
-
-					readRelocationLists(this, reader, relocations, readExternModuleList(reader, relocExternModuleListOffset),
-						internalImportRelocationsOffs,
-						internalRelocationsOffs,
-						externalRelocationsOffs
-					);
-				} else {
-					String[] externModuleList = null;
-					if (reader.versionOver(RPMRevisions.REV_EXTERN_LISTS)) {
-						int relocExternModuleListOffset = reader.readHeaderOffset();
-						externModuleList = readExternModuleList(reader, relocExternModuleListOffset);
-					}
-					int relocationCount = reader.readInt();
-					for (int i = 0; i < relocationCount; i++) {
-						relocations.add(new RPMRelocation(reader, this, externModuleList));
-					}
+					externModuleList = readExternModuleList(reader, relocExternModuleListOffset);
+				}
+				RPMDecoder decoder = reader.getDecoder();
+				int relocationCount = reader.readInt();
+				for (int i = 0; i < relocationCount; i++) {
+					relocations.add(decoder.readRelocation(this, reader, externModuleList));
 				}
 			}
+		}
+	}
 
-			byte[] codeArr = new byte[codeSize];
-			if (codeSize != 0) {
-				reader.seek(codeOffset);
-				reader.read(codeArr);
+	/**
+	 * Reads the base address of a module from its REL section.
+	 *
+	 * @param reader An RPMReader set up for the module.
+	 * @param header Header of the module.
+	 * @return The base address, or -1 if the module has no REL section.
+	 * @throws IOException
+	 */
+	static int readBaseAddress(RPMReader reader, RPMHeader header) throws IOException {
+		if (header.relocationsOffset >= 0) {
+			reader.seek(header.relocationsOffset);
+			if (!reader.checkMagic(REL_MAGIC)) {
+				throw new InvalidMagicException("REL section not present!");
 			}
+			return reader.readInt();
+		}
+		return -1;
+	}
 
-			this.code = new DataIOStream(codeArr);
-			setBaseAddrNoUpdateBytes(baseAddress);
-		} catch (IOException ex) {
-			Logger.getLogger(RPM.class.getName()).log(Level.SEVERE, null, ex);
+	/**
+	 * Copies the code segment of a module into this RPM's code stream.
+	 *
+	 * @param reader An RPMReader set up for the module.
+	 * @param header Header of the module.
+	 * @throws IOException
+	 */
+	void readCodeSegment(RPMReader reader, RPMHeader header) throws IOException {
+		if (header.relocationsOffset >= 0) {
+			baseAddress = readBaseAddress(reader, header);
+		}
+
+		byte[] codeArr = new byte[header.codeSize];
+		if (header.codeSize != 0) {
+			reader.seek(header.codeOffset);
+			reader.read(codeArr);
 		}
+
+		this.code = new DataIOStream(codeArr);
+		setBaseAddrNoUpdateBytes(baseAddress);
 	}
-	
+
 	private void readSymRefArray(RPMReader in, int offset, List<RPMSymbol> dest) throws IOException {
 		if (offset != -1) {
 			in.seek(offset);
@@ -334,7 +382,7 @@ public class RPM {
 	}
 
 	public RPM(byte[] bytes, String fourCC) {
-		this(new DataIOStream(bytes), fourCC, 0, bytes.length);
+		this(ByteBuffer.wrap(bytes), fourCC);
 	}
 
 	public RPM() {
@@ -355,12 +403,13 @@ public class RPM {
 	}
 
 	private static void readRelocationLists(RPM rpm, RPMReader reader, List<RPMRelocation> dest, String[] externModuleList, int... listOffsets) throws IOException {
+		RPMDecoder decoder = reader.getDecoder();
 		for (int lo : listOffsets) {
 			if (lo != -1) {
 				reader.seek(lo);
 				int count = reader.readInt();
 				for (int i = 0; i < count; i++) {
-					dest.add(new RPMRelocation(reader, rpm, externModuleList));
+					dest.add(decoder.readRelocation(rpm, reader, externModuleList));
 				}
 			}
 		}
@@ -444,15 +493,27 @@ public class RPM {
 			int myBssShift = MathEx.padInteger(source.code.getRawLength(), 4) + MathEx.padInteger(source.bssSize, 4);
 			int myCodeSize = code.getRawLength();
 
+			//Name lookups resolve to the first symbol with the name, like getSymbol
+			Map<String, RPMSymbol> sourceSymbolsByName = new HashMap<>();
+			for (RPMSymbol sym : source.symbols) {
+				if (sym.name != null) {
+					sourceSymbolsByName.putIfAbsent(sym.name, sym);
+				}
+			}
+			Map<String, RPMSymbol> symbolsByName = new HashMap<>();
+
 			for (RPMSymbol sym : symbols) {
+				if (sym.name != null) {
+					symbolsByName.putIfAbsent(sym.name, sym);
+				}
 				if (sym.isImportSymbol()) {
 					if (sym.name != null) {
-						System.out.println("Symbol " + sym + " is null, searching for imports...");
-						RPMSymbol newSym = source.getSymbol(sym.name);
+						RPMLog.debug(() -> "Symbol " + sym + " is null, searching for imports...");
+						RPMSymbol newSym = sourceSymbolsByName.get(sym.name);
 						if (newSym != null && !newSym.isImportSymbol()) {
 							sym.clearAttribute(RPMSymbol.RPM_SYMATTR_IMPORT);
 							sym.address += base;
-							System.out.println("Imported symbol " + newSym + " to " + sym);
+							RPMLog.debug(() -> "Imported symbol " + newSym + " to " + sym);
 						}
 					}
 				} else if (sym.isLocal() && sym.address >= myCodeSize) {
@@ -461,14 +522,19 @@ public class RPM {
 				}
 			}
 
+			Set<RPMSymbol> sourceSinitSymbols = Collections.newSetFromMap(new IdentityHashMap<>());
+			sourceSinitSymbols.addAll(source.sinitSymbols);
+			Set<RPMSymbol> sourceSfiniSymbols = Collections.newSetFromMap(new IdentityHashMap<>());
+			sourceSfiniSymbols.addAll(source.sfiniSymbols);
+
 			Map<RPMSymbol, RPMSymbol> oldToNewSymbolMap = new HashMap<>();
 
 			for (RPMSymbol symbol : source.symbols) {
 				RPMSymbol newSymbol = new RPMSymbol(this, symbol);
 				if (newSymbol.name != null) {
-					RPMSymbol existingSymbol = getSymbol(newSymbol.name);
+					RPMSymbol existingSymbol = symbolsByName.get(newSymbol.name);
 					if (existingSymbol != null) {
-						System.out.println("Found symbol in merged RPM: " + existingSymbol + ", replacing " + symbol);
+						RPMLog.debug(() -> "Found symbol in merged RPM: " + existingSymbol + ", replacing " + symbol);
 						oldToNewSymbolMap.put(symbol, existingSymbol);
 						continue;
 					}
@@ -477,10 +543,13 @@ public class RPM {
 					newSymbol.address += base;
 				}
 				symbols.add(newSymbol);
-				if (source.sinitSymbols.contains(symbol)) {
+				if (newSymbol.name != null) {
+					symbolsByName.putIfAbsent(newSymbol.name, newSymbol);
+				}
+				if (sourceSinitSymbols.contains(symbol)) {
 					sinitSymbols.add(newSymbol);
 				}
-				if (source.sfiniSymbols.contains(symbol)) {
+				if (sourceSfiniSymbols.contains(symbol)) {
 					sfiniSymbols.add(newSymbol);
 				}
 				oldToNewSymbolMap.put(symbol, newSymbol);
@@ -494,6 +563,9 @@ public class RPM {
 				relocations.add(newRel);
 			}
 			bssSize += source.bssSize;
+			//addresses and attributes of existing symbols were changed in place
+			symbolAddressIndex.invalidate();
+			invalidateLayout();
 		} catch (IOException ex) {
 			Logger.getLogger(RPM.class.getName()).log(Level.SEVERE, null, ex);
 		}
@@ -579,24 +651,98 @@ public class RPM {
 	}
 
 	/**
-	 * Relocates the code buffer to the given base offset and returns the compiled binary, then relocates it
-	 * back.
+	 * Returns the compiled binary relocated to the given base offset.
+	 *
+	 * The relocations are applied to the output image, this RPM, including its code segment and base
+	 * address, is left untouched. The method can therefore be called concurrently, as long as the RPM is
+	 * not modified at the same time.
 	 *
 	 * @param baseOfs Offset base.
 	 * @param writeBss Write the BSS as zeroes into the file.
 	 * @return
 	 */
 	public byte[] getBytesForBaseOfs(int baseOfs, boolean writeBss) {
-		byte[] origCode = code.toByteArray();
-		updateBytesForBaseAddr(baseOfs);
-		byte[] bytes = getBytes(writeBss);
-		try {
-			code.seek(0);
-			code.write(origCode);
-		} catch (IOException ex) {
-			Logger.getLogger(RPM.class.getName()).log(Level.SEVERE, null, ex);
+		return getBytes(RPM_PROLOG_MAGIC, writeBss, baseOfs, true);
+	}
+
+	/**
+	 * Returns the compiled binary relocated to each of the given base offsets.
+	 *
+	 * The image is serialized only once. For every base offset, a copy of it gets the base address of its
+	 * relocation table updated and its code segment relocated using the relocation plan.
+	 *
+	 * @param baseOfs Offset bases.
+	 * @param writeBss Write the BSS as zeroes into the files.
+	 * @return The binaries, in the order of the offset bases.
+	 */
+	public List<byte[]> getBytesForBaseOfs(List<Integer> baseOfs, boolean writeBss) {
+		List<byte[]> result = new ArrayList<>(baseOfs.size());
+		//the relocation table is omitted at base 0 if there are no relocations, so up to two templates are needed
+		byte[] templateWithRel = null;
+		byte[] templateWithoutRel = null;
+		RPMLayout layout = prepareLayout();
+		RPMRelocationPlan plan = getRelocationPlan();
+		int codeOffset = RPM_PROLOG_SIZE;
+		int relBaseAddressOffset = getHeaderSectionOffset(codeOffset, writeBss) + layout.getRelocationTableOffset() + 4;
+		for (int base : baseOfs) {
+			byte[] image;
+			if (layout.hasRelocationTable(base)) {
+				if (templateWithRel == null) {
+					templateWithRel = getBytes(RPM_PROLOG_MAGIC, writeBss, base, false);
+				}
+				image = templateWithRel.clone();
+				ByteBuffer.wrap(image).order(ByteOrder.LITTLE_ENDIAN).putInt(relBaseAddressOffset, base);
+			} else {
+				if (templateWithoutRel == null) {
+					templateWithoutRel = getBytes(RPM_PROLOG_MAGIC, writeBss, base, false);
+				}
+				image = templateWithoutRel.clone();
+			}
+			plan.apply(image, codeOffset, base);
+			result.add(image);
+		}
+		return result;
+	}
+
+	/**
+	 * Moves an image of this RPM that was relocated to one base address to another one, in place.
+	 *
+	 * Only what depends on the base address is patched: the delta is added to absolute offsets to local
+	 * symbols, self-relative fields that point to global symbols are encoded again, and branches within
+	 * the module are left alone. If the module has FULL_COPY relocations, the code is relocated again
+	 * from the unrelocated code of this RPM instead.
+	 *
+	 * @param image An image as returned by getBytesForBaseOfs for fromBase.
+	 * @param fromBase The base address that the image is relocated to.
+	 * @param toBase The base address to relocate the image to.
+	 */
+	public void rebase(byte[] image, int fromBase, int toBase) {
+		RPMLayout layout = prepareLayout();
+		if (!layout.hasRelocationTable(fromBase) || !layout.hasRelocationTable(toBase)) {
+			throw new IllegalArgumentException("The image size differs between the base addresses, it can not be rebased in place.");
+		}
+		int headerSectionOffset;
+		if (image.length == getHeaderSectionOffset(RPM_PROLOG_SIZE, false) + layout.getHeaderSectionSize(fromBase)) {
+			headerSectionOffset = getHeaderSectionOffset(RPM_PROLOG_SIZE, false);
+		} else if (image.length == getHeaderSectionOffset(RPM_PROLOG_SIZE, true) + layout.getHeaderSectionSize(fromBase)) {
+			headerSectionOffset = getHeaderSectionOffset(RPM_PROLOG_SIZE, true);
+		} else {
+			throw new IllegalArgumentException("The image is not an image of this RPM.");
+		}
+		if (fromBase == toBase) {
+			return;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(image).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(headerSectionOffset + layout.getRelocationTableOffset() + 4, toBase);
+
+		RPMRelocationPlan plan = getRelocationPlan();
+		if (plan.isRebaseable()) {
+			plan.rebase(buf, RPM_PROLOG_SIZE, fromBase, toBase);
+		} else {
+			byte[] codeBytes = code.toByteArray();
+			System.arraycopy(codeBytes, 0, image, RPM_PROLOG_SIZE, codeBytes.length);
+			plan.apply(buf, RPM_PROLOG_SIZE, toBase);
 		}
-		return bytes;
 	}
 
 	public int getByteSize() {
@@ -606,120 +752,82 @@ public class RPM {
 	/**
 	 * Calculates the exact size of the RPM image.
 	 *
+	 * The size of the header section is taken from the layout plan, which is only computed again after
+	 * the symbol, relocation or metadata lists have been changed. If symbols or relocations have been
+	 * changed in place, invalidateLayout has to be called first for the size to be exact.
+	 *
 	 * @param includeBss Include the BSS size int the total.
 	 * @return
 	 */
 	public int getByteSize(boolean includeBss) {
-		int size = RPM_PROLOG_SIZE;
+		return getHeaderSectionOffset(RPM_PROLOG_SIZE, includeBss) + getLayout().getHeaderSectionSize(baseAddress);
+	}
 
-		size += code.getRawLength();
-		size = MathEx.padInteger(size, 4);
+	private int getHeaderSectionOffset(int codeOffset, boolean includeBss) {
+		int size = codeOffset + code.getRawLength();
 		if (includeBss) {
-			size += bssSize;
-		}
-		size = MathEx.padInteger(size, RPM_PADDING);
-
-		size += RPM_DLLEXEC_HEADER_SIZE;
-		size += RPM_INFO_HEADER_SIZE;
-
-		List<String> strings = new ArrayList<>();
-
-		if (metaData.getValueCount() > 0) {
-			size += 4; //META magic
-			size += 4; //metadata count
-			size += metaData.getByteSize();
-			metaData.addStrings(strings);
-			size = MathEx.padInteger(size, RPM_PADDING);
-		}
-
-		for (RPMSymbol s : symbols) {
-			s.addStrings(strings);
-		}
-		for (RPMRelocation r : relocations) {
-			r.target.addStrings(strings);
+			size = MathEx.padInteger(size, 4) + bssSize;
 		}
+		return MathEx.padInteger(size, RPM_PADDING);
+	}
 
-		if (!strings.isEmpty()) {
-			size += 4; //STR0 magic
-			for (String s : strings) {
-				size += s.length() + 1;
-			}
-			size = MathEx.padInteger(size, RPM_PADDING);
+	/**
+	 * Gets the layout plan of the header section, computing it if the module has changed since.
+	 *
+	 * @return The layout plan.
+	 */
+	synchronized RPMLayout getLayout() {
+		if (layout == null || !layout.isValid(this, layoutModCount)) {
+			layout = RPMLayout.create(this, layoutModCount);
 		}
+		return layout;
+	}
 
-		if (!symbols.isEmpty()) {
-			size += 4; //SYM0 magic
-			size += 4; //ExternModules
-			size += 4; //FirstExportSymbolIdx
-			size += 4; //FirstImportSymbolIdx
-			size += 4; //ExportSymbolHashTable
-			size += 4; //SymbolCount
-			for (RPMSymbol s : symbols) {
-				size += s.getByteSize();
-			}
-			size = MathEx.padInteger(size, 4);
-			for (RPMSymbol s : symbols) {
-				if (s.isExportSymbol()) {
-					size += 4; //sizeof(RPM_NAMEHASH)
-				}
-			}
-			size = MathEx.padInteger(size, RPM_PADDING);
-		}
-		if (!sinitSymbols.isEmpty()) {
-			size += (sinitSymbols.size() + 1) * Short.BYTES;
-		}
-		if (!sfiniSymbols.isEmpty()) {
-			size += (sfiniSymbols.size() + 1) * Short.BYTES;
+	/**
+	 * Gets the compiled internal relocations of this RPM, compiling them if the module has changed since.
+	 * Symbol addresses and relocation targets that were changed in place are detected as well.
+	 *
+	 * @return The relocation plan.
+	 */
+	public synchronized RPMRelocationPlan getRelocationPlan() {
+		RPMLayout l = getLayout();
+		if (relocationPlan == null || relocationPlanLayout != l || !relocationPlan.isCurrent()) {
+			relocationPlan = new RPMRelocationPlan(this);
+			relocationPlanLayout = l;
 		}
-		size = MathEx.padInteger(size, RPM_PADDING);
-
-		if (!relocations.isEmpty() || baseAddress != 0) {
-			List<String> relocExternModuleNames = new ArrayList<>();
-
-			size += 4; //REL0 magic
-			size += 4; //base address
-			size += 4; //internal relocations offset
-			size += 4; //internal import relocations offset
-			size += 4; //external relocations offset
-			size += 4; //external relocation module list offset
-
-			size += 4; //relocation list size - external relocations
-			for (RPMRelocation rel : relocations) {
-				if (rel.target.isExternal()) {
-					size += rel.getSize();
-					if (!relocExternModuleNames.contains(rel.target.module)) {
-						ArraysEx.addIfNotNullOrContains(strings, rel.target.module);
-						relocExternModuleNames.add(rel.target.module);
-					}
-				}
-			}
-			size = MathEx.padInteger(size, 4);
-
-			size += 2 + relocExternModuleNames.size() * 2; //external relocation module list
-
-			size = MathEx.padInteger(size, 4);
-
-			size += 4; //relocation list size - internal import relocations
-
-			for (RPMRelocation rel : relocations) {
-				if (isInternalImportSymbolRel(rel)) {
-					size += rel.getSize();
-				}
-			}
-
-			size = MathEx.padInteger(size, 4);
-
-			size += 4; //relocation list size - internal relocations
-			for (RPMRelocation rel : relocations) {
-				if (isInternalNonImportSymbolRel(rel)) {
-					size += rel.getSize();
-				}
-			}
+		return relocationPlan;
+	}
 
-			size = MathEx.padInteger(size, RPM_PADDING);
+	/**
+	 * Gets the layout plan and brings the symbol list and symbol index into the state that the writer
+	 * expects, so that writing does not modify this RPM anymore.
+	 *
+	 * Symbols and relocations may have been changed in place since the plan was computed, so the export
+	 * order and name hashes are always computed again and the plan is rebuilt if it does not describe them
+	 * anymore. Only the string table and section sizes are reused.
+	 *
+	 * @return The layout plan.
+	 */
+	private synchronized RPMLayout prepareLayout() {
+		RPMLayout l = getLayout();
+		if (!l.describes(this, sortSymbolsForExport(symbols))) {
+			invalidateLayout();
+			l = getLayout();
 		}
+		prepareSymbolsForExport(l);
+		symbolIndex.update();
+		return l;
+	}
 
-		return size;
+	/**
+	 * Discards the layout plan of the image. Has to be called after symbols or relocations of this RPM
+	 * have been changed in place for getByteSize to be exact, changes of the lists themselves are tracked
+	 * automatically. Writing the image checks the layout and the relocation plan for changes in place by
+	 * itself.
+	 */
+	public void invalidateLayout() {
+		layoutModCount++;
+		relocationAddressIndex.invalidate();
 	}
 
 	/**
@@ -729,12 +837,14 @@ public class RPM {
 		for (RPMSymbol s : symbols) {
 			if (s.isExportSymbol()) {
 				s.updateNameHash();
-				System.out.println("export symbol " + s.name + " hash " + Integer.toHexString(s.nameHash));
+				RPMLog.debug(() -> "export symbol " + s.name + " hash " + Integer.toHexString(s.nameHash));
 			} else if (s.isImportSymbol()) {
 				//System.out.println("import symbol " + s.name + " hash " + Integer.toHexString(s.address.getNameHash()));
 			}
 			s.name = null;
 		}
+		symbolIndex.invalidate();
+		invalidateLayout();
 	}
 
 	public void stripUnusedSymbols() {
@@ -779,6 +889,23 @@ public class RPM {
 		}
 	}
 
+	/**
+	 * Redirects THUMB_BRANCH relocations whose target is out of short branch range through shared veneers
+	 * at the end of the code segment, one per target address. Sites out of short branch range of the pool
+	 * keep the inline long branch.
+	 *
+	 * @return Number of relocations redirected.
+	 */
+	public int allocateThumbBranchVeneers() {
+		int count = RPMThumbVeneerPool.allocate(this);
+		if (count != 0) {
+			//BSS symbols were moved and relocation sources were changed in place
+			symbolAddressIndex.invalidate();
+			invalidateLayout();
+		}
+		return count;
+	}
+
 	public void strip() {
 		stripIdleInternalRelocations();
 		stripUnusedSymbols();
@@ -805,8 +932,17 @@ public class RPM {
 	 * @return
 	 */
 	public byte[] getBytes(String ident, boolean writeBss) {
+		return getBytes(ident, writeBss, baseAddress, false);
+	}
+
+	private byte[] getBytes(String ident, boolean writeBss, int baseAddress, boolean relocate) {
 		try {
-			RPMWriter writer = new RPMWriter();
+			RPMLayout layout = prepareLayout();
+			int codeOffset = ident.length() + RPM_PROLOG_SIZE - 4;
+			int headerOffset = getHeaderSectionOffset(codeOffset, writeBss);
+			int headerSectionSize = layout.getHeaderSectionSize(baseAddress);
+
+			RPMWriter writer = new RPMWriter(headerOffset + headerSectionSize);
 			writer.setAlignEnable(true);
 
 			writer.writeStringUnterminated(ident);
@@ -818,7 +954,6 @@ public class RPM {
 			writer.writeLong(0); //m_PrevModule
 			writer.writeLong(0); //m_NextModule
 
-			int codeOffset = writer.getPosition();
 			writer.write(code.toByteArray());
 			int codeSize = code.getRawLength();
 			//BSS starts here
@@ -829,186 +964,256 @@ public class RPM {
 			writer.pad(RPM_PADDING);
 
 			//HEADER
-			int headerSectionStart = writer.getPosition();
 			rpmDataOffset.setHere();
 			writer.setHeaderStartHere();
-			writer.writeStringUnterminated(RPM_DLLEXEC_HEADER_MAGIC);
-			writer.writeInt(RPMRevisions.REV_CURRENT);//Format version
-			TemporaryOffset infoOffs = writer.createTempOffset();
-			writer.writeInt(bssSize);
-			TemporaryValue headerSectionSize = new TemporaryValue(writer);
-
-			//INFO section
-			infoOffs.setHere();
-			writer.writeStringUnterminated(INFO_MAGIC); //4
-			TemporaryOffset symbOffset = writer.createTempOffset(); //8
-			TemporaryOffset relOffset = writer.createTempOffset(); //12
-			TemporaryOffset stringsOffset = writer.createTempOffset(); //16
-			writer.writeInt(codeOffset); //20
-			writer.writeInt(codeSize); //24
-			TemporaryOffset sinitOffset = writer.createTempOffset(); //28
-			TemporaryOffset sfiniOffset = writer.createTempOffset(); //32
-			TemporaryOffset metaDataOffset = writer.createTempOffset(); //36 bytes total
-
-			StringTable strings = new StringTable(writer, true, true);
-
-			//Metadata
-			if (metaData.getValueCount() != 0) {
-				metaDataOffset.setHere();
-				writer.writeStringUnterminated(META_MAGIC);
-				metaData.writeMetaData(writer, strings);
-				writer.pad(RPM_PADDING);
-			} else {
-				metaDataOffset.set(-1);
-			}
+			writeHeaderSection(writer, codeOffset, codeSize, layout, baseAddress);
 
-			prepareSymbolsForExport();
+			int fileSize = writer.getPosition();
+			expandSize.set(MathEx.padInteger(fileSize + bssSize, RPM_PADDING));
 
-			//Pre-populate string table
-			for (RPMSymbol sym : symbols) {
-				strings.putString(sym.name);
-			}
-			for (RPMRelocation rel : relocations) {
-				rel.registStrings(strings);
+			writer.close();
+			byte[] bytes = writer.toByteArray();
+			if (relocate) {
+				getRelocationPlan().apply(bytes, codeOffset, baseAddress);
 			}
+			return bytes;
+		} catch (IOException ex) {
+			Logger.getLogger(RPM.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		return null;
+	}
 
-			//String table
-			if (strings.getStringCount() != 0) {
-				stringsOffset.setHere();
-				writer.writeStringUnterminated(STR_MAGIC);
-				strings.writeTable();
-				strings.forbidFurtherWriting();
-				writer.pad(RPM_PADDING);
-			} else {
-				stringsOffset.set(-1);
-			}
+	/**
+	 * Writes the RPM image to an output stream, without building it in memory first.
+	 *
+	 * The output is identical to that of getBytes. Only the header section is buffered, the code segment is
+	 * streamed as-is.
+	 *
+	 * @param out The output stream.
+	 * @param ident User-defined magic signature for the file format.
+	 * @param writeBss If set, the BSS will be included within the file as a zero-filled section.
+	 * @throws IOException
+	 */
+	public void write(OutputStream out, String ident, boolean writeBss) throws IOException {
+		write(Channels.newChannel(out), ident, writeBss);
+	}
 
-			//Symbol table
-			if (!symbols.isEmpty()) {
-				int firstExportSymbolIdx = -1;
-				int firstImportSymbolIdx = -1;
-				int exportSymbolCount = 0;
-				int importSymbolCount = 0;
-
-				for (int i = 0; i < symbols.size(); i++) {
-					if (symbols.get(i).isImportSymbol()) {
-						if (firstImportSymbolIdx == -1) {
-							firstImportSymbolIdx = i;
-						}
-						importSymbolCount++;
+	/**
+	 * Writes the RPM image to a byte channel, without building it in memory first.
+	 *
+	 * @param out The channel.
+	 * @param ident User-defined magic signature for the file format.
+	 * @param writeBss If set, the BSS will be included within the file as a zero-filled section.
+	 * @throws IOException
+	 */
+	public void write(WritableByteChannel out, String ident, boolean writeBss) throws IOException {
+		RPMLayout layout = prepareLayout();
+		int headerSectionSize = layout.getHeaderSectionSize(baseAddress);
+		byte[] identBytes = ident.getBytes(StandardCharsets.US_ASCII);
+		int codeOffset = identBytes.length + RPM_PROLOG_SIZE - 4;
+		byte[] codeBytes = code.toByteArray();
+		int codeSize = code.getRawLength();
+		int headerOffset = getHeaderSectionOffset(codeOffset, writeBss);
+
+		RPMWriter header = new RPMWriter(headerSectionSize);
+		header.setAlignEnable(true);
+		writeHeaderSection(header, codeOffset, codeSize, layout, baseAddress);
+		header.close();
+		byte[] headerBytes = header.toByteArray();
+
+		int fileSize = headerOffset + headerBytes.length;
+
+		ByteBuffer prolog = ByteBuffer.allocate(codeOffset).order(ByteOrder.LITTLE_ENDIAN);
+		prolog.put(identBytes);
+		prolog.putInt(MathEx.padInteger(fileSize + bssSize, RPM_PADDING)); //m_Size
+		prolog.putInt(headerOffset); //m_Exec
+		prolog.putInt(0); //m_ReserveFlags
+		prolog.putLong(0); //m_PrevModule
+		prolog.putLong(0); //m_NextModule
+		prolog.flip();
+		writeFully(out, prolog);
+
+		writeFully(out, ByteBuffer.wrap(codeBytes));
+		writeFully(out, ByteBuffer.allocate(headerOffset - codeOffset - codeBytes.length));
+		writeFully(out, ByteBuffer.wrap(headerBytes));
+	}
+
+	private static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			out.write(buf);
+		}
+	}
+
+	/**
+	 * Writes the header section, starting with the DLXH header, at the current position of a writer.
+	 *
+	 * The header start of the writer must be set to the current position.
+	 *
+	 * @param writer The writer.
+	 * @param codeOffset Offset of the code segment in the image.
+	 * @param codeSize Size of the code segment.
+	 * @param layout Layout plan of the header section, with the symbol order already applied.
+	 * @param baseAddress Base address to write into the relocation table.
+	 */
+	private void writeHeaderSection(RPMWriter writer, int codeOffset, int codeSize, RPMLayout layout, int baseAddress) throws IOException {
+		int headerSectionStart = writer.getPosition();
+		writer.writeStringUnterminated(RPM_DLLEXEC_HEADER_MAGIC);
+		writer.writeInt(RPMRevisions.REV_CURRENT);//Format version
+		TemporaryOffset infoOffs = writer.createTempOffset();
+		writer.writeInt(bssSize);
+		TemporaryValue headerSectionSize = new TemporaryValue(writer);
+
+		//INFO section
+		infoOffs.setHere();
+		writer.writeStringUnterminated(INFO_MAGIC); //4
+		TemporaryOffset symbOffset = writer.createTempOffset(); //8
+		TemporaryOffset relOffset = writer.createTempOffset(); //12
+		TemporaryOffset stringsOffset = writer.createTempOffset(); //16
+		writer.writeInt(codeOffset); //20
+		writer.writeInt(codeSize); //24
+		TemporaryOffset sinitOffset = writer.createTempOffset(); //28
+		TemporaryOffset sfiniOffset = writer.createTempOffset(); //32
+		TemporaryOffset metaDataOffset = writer.createTempOffset(); //36 bytes total
+
+		RPMStringTableBuilder strings = layout.strings;
+
+		//Metadata
+		if (metaData.getValueCount() != 0) {
+			metaDataOffset.setHere();
+			writer.writeStringUnterminated(META_MAGIC);
+			metaData.writeMetaData(writer, strings);
+			writer.pad(RPM_PADDING);
+		} else {
+			metaDataOffset.set(-1);
+		}
+
+		//String table
+		if (strings.getStringCount() != 0) {
+			stringsOffset.setHere();
+			writer.writeStringUnterminated(STR_MAGIC);
+			strings.write(writer);
+			writer.pad(RPM_PADDING);
+		} else {
+			stringsOffset.set(-1);
+		}
+
+		//Symbol table
+		if (!symbols.isEmpty()) {
+			int firstExportSymbolIdx = -1;
+			int firstImportSymbolIdx = -1;
+			int exportSymbolCount = 0;
+			int importSymbolCount = 0;
+
+			for (int i = 0; i < symbols.size(); i++) {
+				if (symbols.get(i).isImportSymbol()) {
+					if (firstImportSymbolIdx == -1) {
+						firstImportSymbolIdx = i;
 					}
-					if (symbols.get(i).isExportSymbol()) {
-						if (firstExportSymbolIdx == -1) {
-							firstExportSymbolIdx = i;
-						}
-						exportSymbolCount++;
+					importSymbolCount++;
+				}
+				if (symbols.get(i).isExportSymbol()) {
+					if (firstExportSymbolIdx == -1) {
+						firstExportSymbolIdx = i;
 					}
+					exportSymbolCount++;
 				}
+			}
 
-				symbOffset.setHere();
-				writer.writeStringUnterminated(SYM_MAGIC);
-				TemporaryOffset symExternModuleListOffs = writer.createTempOffset();
-				writer.writeShort(firstExportSymbolIdx);
-				writer.writeShort(exportSymbolCount);
-				writer.writeShort(firstImportSymbolIdx);
-				writer.writeShort(importSymbolCount);
-				TemporaryOffset exportSymbolHashTableOffs = writer.createTempOffset();
-				writer.writeInt(symbols.size());
-				for (RPMSymbol sym : symbols) {
-					sym.write(writer, strings);
-				}
-				symExternModuleListOffs.set(0); //null for now
-				writer.pad(4);
-				if (firstExportSymbolIdx != -1) {
-					exportSymbolHashTableOffs.setHere();
-					for (int symIdx = firstExportSymbolIdx; symIdx < symbols.size(); symIdx++) {
-						RPMSymbol sym = symbols.get(symIdx);
-						writer.writeInt(sym.nameHash);
-						if (!sym.isExportSymbol()) {
-							break;
-						}
+			symbOffset.setHere();
+			writer.writeStringUnterminated(SYM_MAGIC);
+			TemporaryOffset symExternModuleListOffs = writer.createTempOffset();
+			writer.writeShort(firstExportSymbolIdx);
+			writer.writeShort(exportSymbolCount);
+			writer.writeShort(firstImportSymbolIdx);
+			writer.writeShort(importSymbolCount);
+			TemporaryOffset exportSymbolHashTableOffs = writer.createTempOffset();
+			writer.writeInt(symbols.size());
+			for (RPMSymbol sym : symbols) {
+				sym.write(writer, strings);
+			}
+			symExternModuleListOffs.set(0); //null for now
+			writer.pad(4);
+			if (firstExportSymbolIdx != -1) {
+				exportSymbolHashTableOffs.setHere();
+				for (int symIdx = firstExportSymbolIdx; symIdx < symbols.size(); symIdx++) {
+					RPMSymbol sym = symbols.get(symIdx);
+					writer.writeInt(sym.nameHash);
+					if (!sym.isExportSymbol()) {
+						break;
 					}
 				}
-				writer.pad(RPM_PADDING);
-			} else {
-				symbOffset.set(-1);
 			}
-			
-			writeSymbolRefArray(writer, sinitOffset, sinitSymbols);
-			writeSymbolRefArray(writer, sfiniOffset, sfiniSymbols);
 			writer.pad(RPM_PADDING);
+		} else {
+			symbOffset.set(-1);
+		}
+		
+		writeSymbolRefArray(writer, sinitOffset, sinitSymbols);
+		writeSymbolRefArray(writer, sfiniOffset, sfiniSymbols);
+		writer.pad(RPM_PADDING);
 
-			//Relocation table
-			if (!relocations.isEmpty() || baseAddress != 0) {
-				relOffset.setHere();
-				writer.writeStringUnterminated(REL_MAGIC);
-				writer.writeInt(baseAddress);
-
-				List<String> relocExternModuleNames = new ArrayList<>();
-
-				TemporaryOffset internalRelocationsOffs = writer.createTempOffset();
-				TemporaryOffset internalImportRelocationsOffs = writer.createTempOffset();
-				TemporaryOffset externalRelocationsOffs = writer.createTempOffset();
-				TemporaryOffset relocExternModuleListOffs = writer.createTempOffset();
-
-				externalRelocationsOffs.setHere();
-				TemporaryValue externalRelocationsCountValue = new TemporaryValue(writer);
-				int externalRelocationsCount = 0;
-				for (RPMRelocation rel : relocations) {
-					if (rel.target.isExternal()) {
-						rel.write(writer, strings, relocExternModuleNames);
-						externalRelocationsCount++;
-					}
-				}
-				externalRelocationsCountValue.set(externalRelocationsCount);
+		//Relocation table
+		if (layout.hasRelocationTable(baseAddress)) {
+			relOffset.setHere();
+			writer.writeStringUnterminated(REL_MAGIC);
+			writer.writeInt(baseAddress);
 
-				writer.pad(4);
-				relocExternModuleListOffs.setHere();
-				writer.writeShort(relocExternModuleNames.size());
-				for (String str : relocExternModuleNames) {
-					strings.putStringOffset(str);
-				}
+			List<String> relocExternModuleNames = new ArrayList<>();
 
-				writer.pad(4);
+			TemporaryOffset internalRelocationsOffs = writer.createTempOffset();
+			TemporaryOffset internalImportRelocationsOffs = writer.createTempOffset();
+			TemporaryOffset externalRelocationsOffs = writer.createTempOffset();
+			TemporaryOffset relocExternModuleListOffs = writer.createTempOffset();
 
-				internalImportRelocationsOffs.setHere();
-				TemporaryValue internalImportRelocationsCountValue = new TemporaryValue(writer);
-				int internalImportRelocationsCount = 0;
-				for (RPMRelocation rel : relocations) {
-					if (isInternalImportSymbolRel(rel)) {
-						rel.write(writer, strings, null);
-						internalImportRelocationsCount++;
-					}
+			externalRelocationsOffs.setHere();
+			TemporaryValue externalRelocationsCountValue = new TemporaryValue(writer);
+			int externalRelocationsCount = 0;
+			for (RPMRelocation rel : relocations) {
+				if (rel.target.isExternal()) {
+					rel.write(writer, strings, relocExternModuleNames);
+					externalRelocationsCount++;
 				}
-				internalImportRelocationsCountValue.set(internalImportRelocationsCount);
-				writer.pad(4);
+			}
+			externalRelocationsCountValue.set(externalRelocationsCount);
 
-				internalRelocationsOffs.setHere();
-				TemporaryValue internalRelocationsCountValue = new TemporaryValue(writer);
-				int internalRelocationsCount = 0;
-				for (RPMRelocation rel : relocations) {
-					if (isInternalNonImportSymbolRel(rel)) {
-						rel.write(writer, strings, null);
-						internalRelocationsCount++;
-					}
-				}
-				internalRelocationsCountValue.set(internalRelocationsCount);
+			writer.pad(4);
+			relocExternModuleListOffs.setHere();
+			writer.writeShort(relocExternModuleNames.size());
+			for (String str : relocExternModuleNames) {
+				strings.writeOffset(writer, str);
+			}
 
-				writer.pad(RPM_PADDING);
-			} else {
-				relOffset.set(-1);
+			writer.pad(4);
+
+			internalImportRelocationsOffs.setHere();
+			TemporaryValue internalImportRelocationsCountValue = new TemporaryValue(writer);
+			int internalImportRelocationsCount = 0;
+			for (RPMRelocation rel : relocations) {
+				if (isInternalImportSymbolRel(rel)) {
+					rel.write(writer, strings, null);
+					internalImportRelocationsCount++;
+				}
 			}
+			internalImportRelocationsCountValue.set(internalImportRelocationsCount);
+			writer.pad(4);
 
-			int fileSize = writer.getLength();
-			expandSize.set(MathEx.padInteger(fileSize + bssSize, RPM_PADDING));
-			headerSectionSize.set(writer.getPosition() - headerSectionStart);
+			internalRelocationsOffs.setHere();
+			TemporaryValue internalRelocationsCountValue = new TemporaryValue(writer);
+			int internalRelocationsCount = 0;
+			for (RPMRelocation rel : relocations) {
+				if (isInternalNonImportSymbolRel(rel)) {
+					rel.write(writer, strings, null);
+					internalRelocationsCount++;
+				}
+			}
+			internalRelocationsCountValue.set(internalRelocationsCount);
 
-			writer.close();
-			return writer.toByteArray();
-		} catch (IOException ex) {
-			Logger.getLogger(RPM.class.getName()).log(Level.SEVERE, null, ex);
+			writer.pad(RPM_PADDING);
+		} else {
+			relOffset.set(-1);
 		}
-		return null;
+
+		headerSectionSize.set(writer.getPosition() - headerSectionStart);
 	}
 
 	private void writeSymbolRefArray(RPMWriter writer, TemporaryOffset offs, List<RPMSymbol> l) throws IOException {
@@ -1033,8 +1238,24 @@ public class RPM {
 			&& !(rel.source.symb.isImportSymbol());
 	}
 
-	private void prepareSymbolsForExport() {
-		Arrays.binarySearch(new int[0], 1);
+	/**
+	 * Puts the symbols into the order of a layout plan: internal symbols first, followed by export and
+	 * import symbols sorted by their name hash. The symbol list is only changed if it is not in that order
+	 * already.
+	 */
+	private void prepareSymbolsForExport(RPMLayout layout) {
+		boolean ordered = symbols.size() == layout.symbolOrder.size();
+		for (int i = 0; ordered && i < symbols.size(); i++) {
+			ordered = symbols.get(i) == layout.symbolOrder.get(i);
+		}
+		if (!ordered) {
+			symbols.clear();
+			symbols.addAll(layout.symbolOrder);
+			layout.stamp(this, layoutModCount);
+		}
+	}
+
+	static List<RPMSymbol> sortSymbolsForExport(List<RPMSymbol> symbols) {
 		List<RPMSymbol> sorted = new ArrayList<>(symbols.size());
 		for (RPMSymbol s : symbols) {
 			if (!(s.isImportSymbol() || s.isExportSymbol())) {
@@ -1058,8 +1279,7 @@ public class RPM {
 		}
 		sortSymbolsByHash(importSymbols);
 		sorted.addAll(importSymbols);
-		symbols.clear();
-		symbols.addAll(sorted);
+		return sorted;
 	}
 
 	private static void sortSymbolsByHash(List<RPMSymbol> symbols) {
@@ -1074,7 +1294,7 @@ public class RPM {
 		outfolder.mkdirs();
 		for (FSFile child : folder.listFiles()) {
 			if (child.getName().endsWith(".dll") || child.getName().endsWith(".rpm")) {
-				System.out.println("Conv RPM " + child);
+				RPMLog.info(() -> "Conv RPM " + child);
 				byte[] data = child.getBytes();
 				if (child.getName().endsWith(".dll")) {
 					data[0] = 'R';
@@ -1121,7 +1341,7 @@ public class RPM {
 	 * @param relocator The external relocator to use.
 	 */
 	public void doExternalRelocations(RPMExternalRelocator relocator) {
-		System.out.println("Beginning external relocation. Base address: " + Integer.toHexString(getCodeSegmentBase()));
+		RPMLog.info(() -> "Beginning external relocation. Base address: " + Integer.toHexString(getCodeSegmentBase()));
 		for (RPMRelocation rel : relocations) {
 			if (rel.target.isExternal()) {
 				relocator.processExternalRelocation(this, rel);
@@ -1129,6 +1349,41 @@ public class RPM {
 		}
 	}
 
+	/**
+	 * Performs relocations on external symbols, passing them to the relocator grouped by target module and
+	 * sorted by target address. Modules are processed in the order of their first relocation.
+	 *
+	 * @param relocator The external relocator to use.
+	 */
+	public void doExternalRelocationsBatched(RPMBatchedExternalRelocator relocator) {
+		for (RPMExternalRelocationBatch batch : getExternalRelocationBatches()) {
+			relocator.processExternalRelocations(this, batch);
+		}
+	}
+
+	/**
+	 * Groups the external relocations by target module and sorts them by target address.
+	 *
+	 * @return A batch for every target module.
+	 */
+	public List<RPMExternalRelocationBatch> getExternalRelocationBatches() {
+		Map<String, List<RPMRelocation>> byModule = new LinkedHashMap<>();
+		for (RPMRelocation rel : relocations) {
+			if (rel.target.isExternal()) {
+				byModule.computeIfAbsent(rel.target.module, k -> new ArrayList<>()).add(rel);
+			}
+		}
+		int codeSegmentBase = getCodeSegmentBase();
+		List<RPMExternalRelocationBatch> batches = new ArrayList<>(byModule.size());
+		for (Map.Entry<String, List<RPMRelocation>> e : byModule.entrySet()) {
+			List<RPMRelocation> rels = e.getValue();
+			//stable, so that relocations of the same field are applied in list order
+			rels.sort((o1, o2) -> Integer.compare(o1.target.getAddrHWordAligned(), o2.target.getAddrHWordAligned()));
+			batches.add(new RPMExternalRelocationBatch(e.getKey(), rels.toArray(new RPMRelocation[rels.size()]), codeSegmentBase));
+		}
+		return batches;
+	}
+
 	private void relocateBufferToAddr(int baseAddress) {
 		if (this.baseAddress != baseAddress) {
 			setBaseAddrNoUpdateBytes(baseAddress);
@@ -1137,7 +1392,7 @@ public class RPM {
 			if (code.getOffsetBase() != getCodeSegmentBase()) {
 				throw new RuntimeException("Base address mismatch! code " + Long.toHexString(code.getOffsetBase()) + " should be " + getCodeSegmentBase());
 			}
-			System.out.println("Beginning relocation at base " + Long.toHexString(code.getOffsetBase()));
+			RPMLog.info(() -> "Beginning relocation at base " + Long.toHexString(code.getOffsetBase()));
 			for (RPMRelocation rel : relocations) {
 				if (rel.target.isInternal()) {
 					//System.out.println("rel " + rel.target.address + ", " + rel.target.module);
@@ -1173,7 +1428,21 @@ public class RPM {
 	 * @throws IOException
 	 */
 	public static void writeRelocationDataByType(RPM rpm, RPMRelocation rel, DataIOStream out) throws IOException {
-		int addr = rel.source.getWritableAddress();
+		writeRelocationData(rpm, rel, out, rpm.getCodeSegmentBase(), rpm.code, 0);
+	}
+
+	/**
+	 * Writes the relocated field of a relocation at the current position of a stream.
+	 *
+	 * @param rpm The RPM that the relocation belongs to.
+	 * @param rel The relocation.
+	 * @param out The stream, based so that its positions are the addresses of the relocated fields.
+	 * @param codeSegmentBase Address of the code segment to resolve local symbols against.
+	 * @param copySource Stream to read the source data of FULL_COPY relocations from.
+	 * @param copySourceCodeOffset Unbased position of the code segment in copySource.
+	 */
+	static void writeRelocationData(RPM rpm, RPMRelocation rel, DataIOStream out, int codeSegmentBase, DataIOStream copySource, int copySourceCodeOffset) throws IOException {
+		int addr = rel.source.getWritableAddress(codeSegmentBase);
 		if (addr == -1) {
 			//Invalid address / extern
 			return;
@@ -1255,23 +1524,25 @@ public class RPM {
 				int len = rel.source.getLength();
 				if (len > 0) {
 					copyEndAdr = copyStartAdr + len;
-					rpm.code.seekUnbased(copyStartAdr);
-					byte[] bytes = new byte[len];
-					rpm.code.read(bytes);
-
+					//the source may be the output stream itself, so its position is kept across the read
 					int pos = out.getPosition();
+					copySource.seekUnbased(copySourceCodeOffset + copyStartAdr);
+					byte[] bytes = new byte[len];
+					copySource.read(bytes);
 
+					out.seek(pos);
 					out.write(bytes);
 
-					System.out.println("FULL_COPIED to " + Integer.toHexString(pos) + " (size 0x" + Integer.toHexString(bytes.length) + " bytes)");
-					for (RPMRelocation copyRel : rpm.relocations) {
-						if (copyRel.target.isInternal() && copyRel.target.targetType != RPMRelTargetType.FULL_COPY) {
+					RPMLog.debug(() -> "FULL_COPIED to " + Integer.toHexString(pos) + " (size 0x" + Integer.toHexString(bytes.length) + " bytes)");
+					for (RPMRelocation copyRel : rpm.findInternalRelocationsInRange(copyStartAdr, copyEndAdr)) {
+						if (copyRel.target.targetType != RPMRelTargetType.FULL_COPY) {
 							int copyRelAddr = copyRel.target.getAddrHWordAligned();
-							if (copyRelAddr >= copyStartAdr && copyRelAddr < copyEndAdr) {
-								out.seek(pos + (copyRelAddr - copyStartAdr));
-								System.out.println("Applying mirrored relocation at " + Integer.toHexString(out.getPosition()) + " type " + copyRel.target.targetType);
-								writeRelocationDataByType(rpm, copyRel, out);
+							out.seek(pos + (copyRelAddr - copyStartAdr));
+							if (RPMLog.isEnabled(RPMLog.LogLevel.TRACE)) {
+								int mirrorPos = out.getPosition();
+								RPMLog.trace(() -> "Applying mirrored relocation at " + Integer.toHexString(mirrorPos) + " type " + copyRel.target.targetType);
 							}
+							writeRelocationData(rpm, copyRel, out, codeSegmentBase, copySource, copySourceCodeOffset);
 						}
 					}
 				} else {
@@ -1288,12 +1559,7 @@ public class RPM {
 	 * @return
 	 */
 	public RPMSymbol getSymbol(String symbName) {
-		for (RPMSymbol s : symbols) {
-			if (Objects.equals(s.name, symbName)) {
-				return s;
-			}
-		}
-		return null;
+		return symbolIndex.getByName(symbName);
 	}
 
 	/**
@@ -1316,14 +1582,50 @@ public class RPM {
 	 * @return
 	 */
 	public RPMSymbol findGlobalSymbolByAddrAbs(int addr) {
-		for (RPMSymbol s : symbols) {
-			if (s.isGlobal()) {
-				if (s.getAddrAbs() == addr) {
-					return s;
-				}
-			}
-		}
-		return null;
+		return symbolAddressIndex.getGlobalAt(addr);
+	}
+
+	/**
+	 * Finds all non-import symbols in the RPM at an absolute address.
+	 *
+	 * @param addr The absolute address.
+	 * @return The symbols in symbol list order, empty if none.
+	 */
+	public List<RPMSymbol> findSymbolsByAddrAbs(int addr) {
+		return symbolAddressIndex.getAt(addr);
+	}
+
+	/**
+	 * Finds the symbol containing an absolute address. Of the closest global and local symbols at or below
+	 * the address, the closer one whose size covers the address is returned.
+	 *
+	 * @param addr The absolute address.
+	 * @return The symbol, or null if none contains the address.
+	 */
+	public RPMSymbol findSymbolContainingAddrAbs(int addr) {
+		return symbolAddressIndex.getContaining(addr);
+	}
+
+	/**
+	 * Finds all non-import symbols in the RPM within a range of absolute addresses.
+	 *
+	 * @param start Start of the range, inclusive.
+	 * @param end End of the range, exclusive.
+	 * @return The symbols, ordered by address.
+	 */
+	public List<RPMSymbol> findSymbolsInRangeAbs(int start, int end) {
+		return symbolAddressIndex.getInRange(start, end);
+	}
+
+	/**
+	 * Finds all internal relocations with a target within a range of code segment offsets.
+	 *
+	 * @param start Start of the range, inclusive.
+	 * @param end End of the range, exclusive.
+	 * @return The relocations, ordered by target address.
+	 */
+	public List<RPMRelocation> findInternalRelocationsInRange(int start, int end) {
+		return relocationAddressIndex.getInRange(start, end);
 	}
 
 	/**
@@ -1333,7 +1635,18 @@ public class RPM {
 	 * @return Index of 'symb'.
 	 */
 	public int getSymbolNo(RPMSymbol symb) {
-		return symbols.indexOf(symb);
+		return symbolIndex.indexOf(symb);
+	}
+
+	/**
+	 * Discards the symbol name and address indices and the layout plan. Has to be called after symbols of
+	 * this RPM have been renamed, moved or had their attributes changed in place, changes of the symbol
+	 * list itself are tracked automatically.
+	 */
+	public void invalidateSymbolIndex() {
+		symbolIndex.invalidate();
+		symbolAddressIndex.invalidate();
+		invalidateLayout();
 	}
 
 	/**
@@ -0,0 +1,30 @@
+package rpm.format.rpm;
+
+/**
+ * An interface for processing the relocations from remote symbols in batches, one per target module.
+ */
+public interface RPMBatchedExternalRelocator {
+
+	/**
+	 * Callback to query the relocator to process all relocations into a target module.
+	 *
+	 * @param rpm The RPM of the relocations.
+	 * @param batch The relocations into the module, sorted by target address.
+	 */
+	public void processExternalRelocations(RPM rpm, RPMExternalRelocationBatch batch);
+
+	/**
+	 * Wraps a relocator that processes relocations one by one. The relocations are passed to it in batch
+	 * order.
+	 *
+	 * @param relocator The relocator.
+	 * @return
+	 */
+	public static RPMBatchedExternalRelocator adapt(RPMExternalRelocator relocator) {
+		return (rpm, batch) -> {
+			for (RPMRelocation rel : batch.relocations) {
+				relocator.processExternalRelocation(rpm, rel);
+			}
+		};
+	}
+}
@@ -0,0 +1,181 @@
+package rpm.format.rpm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import xstandard.io.base.impl.ext.data.DataIOStream;
+
+/**
+ * Throughput benchmark of the RPM format handler.
+ *
+ * Usage: RPMBenchmark [RPM files...]. If no files are given, a synthetic module with 8000 symbols and
+ * 16000 relocations is generated.
+ */
+public class RPMBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 200;
+	private static final int ITERATIONS = 1000;
+
+	public static void main(String[] args) throws IOException {
+		List<ByteBuffer> modules = new ArrayList<>();
+		if (args.length == 0) {
+			modules.add(ByteBuffer.wrap(createSyntheticModule(8000, 16000).getBytes()));
+		} else {
+			for (String path : args) {
+				modules.add(RPM.mapFile(new File(path)));
+			}
+		}
+
+		long totalBytes = 0;
+		for (ByteBuffer buf : modules) {
+			totalBytes += buf.remaining();
+		}
+		System.out.println("Modules: " + modules.size() + ", " + totalBytes + " bytes");
+
+		benchmarkDecoders(modules, totalBytes);
+		benchmarkRelocation(createMergedModule(8, 32000));
+		benchmarkMerge(10000);
+	}
+
+	/**
+	 * Compares the parse throughput of the revision-specialized entry decoders with the generic ones.
+	 */
+	private static void benchmarkDecoders(List<ByteBuffer> modules, long totalBytes) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			parseAll(modules, false);
+			parseAll(modules, true);
+		}
+		long genericTime = 0;
+		long specializedTime = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			parseAll(modules, false);
+			genericTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			parseAll(modules, true);
+			specializedTime += System.nanoTime() - start;
+		}
+		printResult("Generic decoders", genericTime, totalBytes);
+		printResult("Specialized decoders", specializedTime, totalBytes);
+	}
+
+	/**
+	 * Compares sequential and parallel application of a relocation plan.
+	 */
+	private static void benchmarkRelocation(RPM rpm) {
+		RPMRelocationPlan plan = rpm.getRelocationPlan();
+		byte[] image = rpm.getCodeStream().toByteArray();
+		System.out.println("Relocations: " + plan.size() + ", " + image.length + " code bytes");
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			plan.apply(image, 0, i * 0x1000);
+			plan.applyParallel(image, 0, i * 0x1000);
+		}
+		long sequentialTime = 0;
+		long parallelTime = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			plan.apply(image, 0, i * 0x1000);
+			sequentialTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			plan.applyParallel(image, 0, i * 0x1000);
+			parallelTime += System.nanoTime() - start;
+		}
+		printResult("Sequential relocation", sequentialTime, image.length);
+		printResult("Parallel relocation", parallelTime, image.length);
+		System.out.println(String.format("Speedup: %.2fx", sequentialTime / (double) parallelTime));
+	}
+
+	/**
+	 * Measures merging of two synthetic modules. Half of the symbols of the modules share their names, the
+	 * other half is added to the merged module as new symbols. Module creation is not timed.
+	 */
+	private static void benchmarkMerge(int symbolCount) {
+		long time = 0;
+		int iterations = 20;
+		for (int i = 0; i < iterations * 2; i++) {
+			RPM a = createSyntheticModule(symbolCount, symbolCount, "a_");
+			RPM b = createSyntheticModule(symbolCount, symbolCount, "b_");
+			long start = System.nanoTime();
+			a.merge(b);
+			if (i >= iterations) {
+				time += System.nanoTime() - start;
+			}
+		}
+		System.out.println(String.format("Merge of 2x%d symbols: %.3f ms", symbolCount, time / 1e6 / iterations));
+	}
+
+	private static int parseAll(List<ByteBuffer> modules, boolean specialized) throws IOException {
+		int count = 0;
+		for (ByteBuffer buf : modules) {
+			RPMReader reader = new RPMReader(buf);
+			RPMHeader header = RPMHeader.read(reader, null);
+			if (!specialized) {
+				reader.setDecoder(new RPMDecoder.Generic());
+			}
+			RPM rpm = new RPM();
+			rpm.readMetaDataSection(reader, header);
+			rpm.readSymbolSections(reader, header);
+			rpm.readRelocationSection(reader, header);
+			count += rpm.symbols.size() + rpm.relocations.size();
+		}
+		return count;
+	}
+
+	static void printResult(String name, long nanos, long bytesPerIteration) {
+		double seconds = nanos / 1e9;
+		double mbPerSecond = (bytesPerIteration * (double) ITERATIONS) / (1024.0 * 1024.0) / seconds;
+		System.out.println(String.format("%-24s %10.3f ms/iter %10.1f MiB/s", name, nanos / 1e6 / ITERATIONS, mbPerSecond));
+	}
+
+	/**
+	 * Creates a module by merging synthetic modules with one relocation per symbol.
+	 */
+	static RPM createMergedModule(int moduleCount, int symbolCount) {
+		RPM rpm = createSyntheticModule(symbolCount, symbolCount);
+		for (int i = 1; i < moduleCount; i++) {
+			rpm.merge(createSyntheticModule(symbolCount, symbolCount));
+		}
+		return rpm;
+	}
+
+	/**
+	 * Creates a module with the given number of symbols and internal relocations.
+	 */
+	static RPM createSyntheticModule(int symbolCount, int relocationCount) {
+		return createSyntheticModule(symbolCount, relocationCount, "sym_");
+	}
+
+	/**
+	 * Creates a module with the given number of symbols and internal relocations. Every other symbol is
+	 * named with the given prefix, the rest are named sym_N. Every 16th symbol is a static initializer
+	 * and finalizer.
+	 */
+	static RPM createSyntheticModule(int symbolCount, int relocationCount, String uniquePrefix) {
+		RPM rpm = new RPM();
+		byte[] code = new byte[symbolCount * 4];
+		rpm.setCode(new DataIOStream(code));
+		for (int i = 0; i < symbolCount; i++) {
+			String name = ((i & 1) != 0 ? uniquePrefix : "sym_") + i;
+			RPMSymbol sym = new RPMSymbol(rpm, name, RPMSymbolType.FUNCTION_THM, i * 4, false);
+			sym.size = 4;
+			if ((i & 7) == 0) {
+				sym.attributes |= RPMSymbol.RPM_SYMATTR_EXPORT;
+			}
+			rpm.symbols.add(sym);
+			if ((i & 15) == 1) {
+				rpm.sinitSymbols.add(sym);
+				rpm.sfiniSymbols.add(sym);
+			}
+		}
+		for (int i = 0; i < relocationCount; i++) {
+			RPMRelocation rel = new RPMRelocation();
+			rel.target = new RPMRelocationTarget((i % symbolCount) * 4, RPMRelTargetType.OFFSET);
+			rel.source = new RPMRelocationSource(rpm, rpm.symbols.get((i * 31) % symbolCount));
+			rpm.relocations.add(rel);
+		}
+		return rpm;
+	}
+}
@@ -0,0 +1,92 @@
+package rpm.format.rpm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scanner for RPM modules concatenated in a single image.
+ *
+ * Modules are walked using the size information in their headers. The image is only searched for a module
+ * prolog where no module follows the previous one, such as in front of the first module.
+ */
+public class RPMChainScanner {
+
+	/**
+	 * Scans a file for concatenated modules, mapping it into memory.
+	 *
+	 * @param file The file to scan.
+	 * @return Handles of all modules found in the file.
+	 * @throws IOException
+	 */
+	public static List<RPMHandle> scan(File file) throws IOException {
+		return scan(RPM.mapFile(file), null);
+	}
+
+	/**
+	 * Scans an image for concatenated modules.
+	 *
+	 * @param image A buffer whose remaining content is the image. Handle offsets are relative to its
+	 * position.
+	 * @param fourCC Four character magic of the module prologs, or null for the default.
+	 * @return Handles of all modules found in the image.
+	 */
+	public static List<RPMHandle> scan(ByteBuffer image, String fourCC) {
+		if (fourCC == null) {
+			fourCC = RPM.RPM_PROLOG_MAGIC;
+		}
+		ByteBuffer buf = image.slice();
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+
+		List<RPMHandle> handles = new ArrayList<>();
+		int end = buf.limit();
+		int pos = 0;
+		while (pos <= end - RPM.RPM_PROLOG_SIZE) {
+			if (!isModuleAt(buf, pos, fourCC)) {
+				pos++;
+				continue;
+			}
+			int length = -1;
+			try {
+				buf.position(pos);
+				RPMHandle handle = new RPMHandle(buf, fourCC, pos);
+				length = handle.getLength();
+				if (length > 0 && length <= end - pos) {
+					handles.add(handle);
+				}
+			} catch (IOException ex) {
+				Logger.getLogger(RPMChainScanner.class.getName()).log(Level.WARNING, "Invalid module at 0x" + Integer.toHexString(pos), ex);
+			}
+			if (length > 0 && length <= end - pos) {
+				pos += length;
+			} else {
+				pos++;
+			}
+		}
+		return handles;
+	}
+
+	private static boolean isModuleAt(ByteBuffer buf, int pos, String fourCC) {
+		for (int i = 0; i < fourCC.length(); i++) {
+			if (buf.get(pos + i) != fourCC.charAt(i)) {
+				return false;
+			}
+		}
+		int execOffset = buf.getInt(pos + 8);
+		if (execOffset < RPM.RPM_PROLOG_SIZE || execOffset > buf.limit() - pos - RPM.RPM_DLLEXEC_HEADER_SIZE) {
+			return false;
+		}
+		String magic = RPM.RPM_DLLEXEC_HEADER_MAGIC;
+		for (int i = 0; i < magic.length(); i++) {
+			if (buf.get(pos + execOffset + i) != magic.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
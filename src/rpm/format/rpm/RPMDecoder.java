@@ -0,0 +1,187 @@
+package rpm.format.rpm;
+
+import java.io.IOException;
+
+/**
+ * Decoder of symbol, relocation and metadata entries, specialized for a family of format revisions.
+ *
+ * A decoder is selected once per file when the revision is known, so that entry decoding does not branch
+ * on the revision for every field.
+ */
+abstract class RPMDecoder {
+
+	protected static final RPMSymbolType[] SYMBOL_TYPES = RPMSymbolType.values();
+	protected static final RPMRelTargetType[] TARGET_TYPES = RPMRelTargetType.values();
+	protected static final RPMRelocation.RPMRelSourceType_Legacy[] SOURCE_TYPES_LEGACY = RPMRelocation.RPMRelSourceType_Legacy.values();
+	protected static final RPMMetaData.RPMMetaValueType[] META_VALUE_TYPES = RPMMetaData.RPMMetaValueType.values();
+
+	/**
+	 * Gets the decoder for a format revision.
+	 *
+	 * @param version An RPMRevisions constant.
+	 * @return The decoder.
+	 */
+	public static RPMDecoder forVersion(int version) {
+		if (version >= RPMRevisions.REV_COMPACT_RELOCATIONS) {
+			return new Compact(version >= RPMRevisions.REV_GLOBAL_IN_SYMATTR);
+		}
+		if (version >= RPMRevisions.REV_ALIGNED_FORMAT) {
+			return new Aligned();
+		}
+		return new Generic();
+	}
+
+	public abstract RPMSymbol readSymbol(RPM rpm, RPMReader in) throws IOException;
+
+	public abstract RPMRelocation readRelocation(RPM rpm, RPMReader in, String[] externModuleTable) throws IOException;
+
+	public RPMMetaData.RPMMetaValue readMetaValue(RPMReader in) throws IOException {
+		String name = in.readStringWithAddress();
+		RPMMetaData.RPMMetaValueType type = META_VALUE_TYPES[in.read()];
+		in.read();
+		Object value = null;
+		switch (type) {
+			case INT:
+				value = in.readInt();
+				break;
+			case STRING:
+				value = in.readStringWithAddress();
+				in.readShort();
+				break;
+		}
+		return new RPMMetaData.RPMMetaValue(name, type, value);
+	}
+
+	protected static RPMRelocationSource readSource(RPM rpm, RPMReader in) throws IOException {
+		int symId = in.readUnsignedShort();
+		RPMSymbol symb = rpm.getSymbol(symId);
+		if (symb == null) {
+			throw new RuntimeException("Could not find symbol by ID " + symId + "!");
+		}
+		return new RPMRelocationSource(rpm, symb);
+	}
+
+	protected static void setCompatAddress(RPM rpm, RPMSymbol sym, int addrBits) {
+		RPMSymbolAddressCompat addrCompat = new RPMSymbolAddressCompat(rpm, addrBits);
+		if (sym.isImportSymbol()) {
+			sym.address = addrCompat.getNameHash();
+		} else {
+			sym.setAddress(addrCompat.getAddr(), addrCompat.getAddrType() == RPMSymbolAddressCompat.RPMAddrType.GLOBAL);
+		}
+	}
+
+	/**
+	 * Decoder using the generic entry constructors, which branch on the revision for every field.
+	 *
+	 * Used for unaligned revisions older than REV_ALIGNED_FORMAT, whose layout varies too much to be
+	 * worth specializing further.
+	 */
+	static class Generic extends RPMDecoder {
+
+		@Override
+		public RPMSymbol readSymbol(RPM rpm, RPMReader in) throws IOException {
+			return new RPMSymbol(rpm, in);
+		}
+
+		@Override
+		public RPMRelocation readRelocation(RPM rpm, RPMReader in, String[] externModuleTable) throws IOException {
+			return new RPMRelocation(in, rpm, externModuleTable);
+		}
+
+		@Override
+		public RPMMetaData.RPMMetaValue readMetaValue(RPMReader in) throws IOException {
+			return new RPMMetaData.RPMMetaValue(in);
+		}
+	}
+
+	/**
+	 * Decoder for aligned revisions from REV_ALIGNED_FORMAT up to REV_COMPACT_RELOCATIONS.
+	 */
+	static class Aligned extends RPMDecoder {
+
+		@Override
+		public RPMSymbol readSymbol(RPM rpm, RPMReader in) throws IOException {
+			RPMSymbol sym = new RPMSymbol(rpm);
+			sym.name = in.readStringWithAddress();
+			sym.size = in.readUnsignedShort();
+			int addrBits = in.readInt();
+			sym.type = SYMBOL_TYPES[in.read()];
+			sym.attributes = in.read();
+			in.readShort(); //reserved
+			setCompatAddress(rpm, sym, addrBits);
+			return sym;
+		}
+
+		@Override
+		public RPMRelocation readRelocation(RPM rpm, RPMReader in, String[] externModuleTable) throws IOException {
+			RPMRelocation rel = new RPMRelocation();
+			RPMRelocation.RPMRelSourceType_Legacy sourceType = SOURCE_TYPES_LEGACY[in.read()];
+			RPMRelTargetType targetType = TARGET_TYPES[in.read()];
+			in.readShort();
+
+			switch (sourceType) {
+				case SYMBOL_EXTERNAL:
+					in.skipBytes(4); //NO LONGER SUPPORTED
+					break;
+				case SYMBOL_INTERNAL:
+					rel.source = readSource(rpm, in);
+					in.readShort();
+					break;
+			}
+
+			int address = in.readInt();
+			String module = RPMRelocationTarget.MODULE_BASE;
+			if (address < 0) {
+				//module flag in the top bit
+				address &= 0x7FFFFFFF;
+				module = in.readStringWithAddress();
+				in.readShort();
+			} else {
+				in.readInt();
+			}
+			rel.target = new RPMRelocationTarget(address, module, targetType);
+			return rel;
+		}
+	}
+
+	/**
+	 * Decoder for revisions from REV_COMPACT_RELOCATIONS on.
+	 */
+	static class Compact extends RPMDecoder {
+
+		private final boolean globalInSymAttr;
+
+		public Compact(boolean globalInSymAttr) {
+			this.globalInSymAttr = globalInSymAttr;
+		}
+
+		@Override
+		public RPMSymbol readSymbol(RPM rpm, RPMReader in) throws IOException {
+			RPMSymbol sym = new RPMSymbol(rpm);
+			sym.name = in.readStringWithAddress();
+			sym.size = in.readUnsignedShort();
+			int address = in.readInt();
+			sym.type = SYMBOL_TYPES[in.read()];
+			sym.attributes = in.read();
+			in.readShort(); //reserved
+			if (globalInSymAttr) {
+				sym.address = address;
+			} else {
+				setCompatAddress(rpm, sym, address);
+			}
+			return sym;
+		}
+
+		@Override
+		public RPMRelocation readRelocation(RPM rpm, RPMReader in, String[] externModuleTable) throws IOException {
+			RPMRelocation rel = new RPMRelocation();
+			int address = in.readInt();
+			int externModuleIndex = in.read();
+			RPMRelTargetType targetType = TARGET_TYPES[in.read()];
+			String module = externModuleIndex != 0xFF ? externModuleTable[externModuleIndex] : RPMRelocationTarget.MODULE_BASE;
+			rel.target = new RPMRelocationTarget(address, module, targetType);
+			rel.source = readSource(rpm, in);
+			return rel;
+		}
+	}
+}
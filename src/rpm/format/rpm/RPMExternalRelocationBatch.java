@@ -0,0 +1,67 @@
+package rpm.format.rpm;
+
+/**
+ * External relocations of an RPM into a single target module, sorted by target address.
+ *
+ * The relocated fields are described by primitive arrays, so that a relocator can apply them in a
+ * single sequential pass over the target segment. Relocations with the same target address keep their
+ * order in the relocation list.
+ */
+public class RPMExternalRelocationBatch {
+
+	/**
+	 * Name of the target module.
+	 */
+	public final String module;
+
+	/**
+	 * Number of relocations in the batch.
+	 */
+	public final int size;
+
+	/**
+	 * Addresses of the relocated fields in the target module, ascending.
+	 */
+	public final int[] targetAddresses;
+
+	/**
+	 * Ordinals of the RPMRelTargetType of each relocation.
+	 */
+	public final byte[] targetTypes;
+
+	/**
+	 * Addresses to write into the relocated fields, with the Thumb bit set for Thumb functions, or -1
+	 * if the source symbol is an import.
+	 */
+	public final int[] sourceAddresses;
+
+	/**
+	 * The relocations, in the order of the arrays.
+	 */
+	public final RPMRelocation[] relocations;
+
+	RPMExternalRelocationBatch(String module, RPMRelocation[] relocations, int codeSegmentBase) {
+		this.module = module;
+		this.relocations = relocations;
+		size = relocations.length;
+		targetAddresses = new int[size];
+		targetTypes = new byte[size];
+		sourceAddresses = new int[size];
+		for (int i = 0; i < size; i++) {
+			RPMRelocation rel = relocations[i];
+			targetAddresses[i] = rel.target.getAddrHWordAligned();
+			targetTypes[i] = (byte) rel.target.targetType.ordinal();
+			sourceAddresses[i] = rel.source.getWritableAddress(codeSegmentBase);
+		}
+	}
+
+	/**
+	 * Gets the type of a relocation in the batch.
+	 *
+	 * @param index Index of the relocation.
+	 * @return
+	 */
+	public RPMRelTargetType getTargetType(int index) {
+		return RPMRelTargetType.values()[targetTypes[index]];
+	}
+}
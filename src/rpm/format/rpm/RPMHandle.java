@@ -0,0 +1,393 @@
+package rpm.format.rpm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import xstandard.io.InvalidMagicException;
+
+/**
+ * Lazily decoded view of an RPM binary.
+ *
+ * Only the prolog, DllExec header and INFO section are parsed when the handle is opened. Metadata, symbols,
+ * relocations and code are decoded from the underlying buffer on first access.
+ */
+public class RPMHandle {
+
+	private final ByteBuffer buf;
+	private final RPMHeader header;
+	private final int offset;
+
+	private RPM rpm;
+
+	private boolean metaDataLoaded = false;
+	private boolean symbolsLoaded = false;
+	private boolean relocationsLoaded = false;
+	private boolean codeLoaded = false;
+
+	private RPMReader reader;
+	private boolean exportTableAvailable = false;
+	private int symbolCount = -1;
+	private int symbolTableOffset;
+	private int firstExportSymbolIdx = -1;
+	private int exportSymbolCount = 0;
+	private int exportSymbolHashTableOffset = -1;
+	private int baseAddress;
+
+	/**
+	 * Opens a module in a byte buffer.
+	 *
+	 * @param buf A buffer whose remaining content is the module. It should not be modified while the
+	 * handle is in use.
+	 * @param fourCC Four character magic to validate files with.
+	 * @throws IOException If the module header is invalid.
+	 */
+	public RPMHandle(ByteBuffer buf, String fourCC) throws IOException {
+		this(buf, fourCC, 0);
+	}
+
+	/**
+	 * Opens a module at an offset in a larger image.
+	 *
+	 * @param buf A buffer whose remaining content starts with the module.
+	 * @param fourCC Four character magic to validate files with.
+	 * @param offset Offset of the module in the image, as reported by getOffset.
+	 * @throws IOException If the module header is invalid.
+	 */
+	RPMHandle(ByteBuffer buf, String fourCC, int offset) throws IOException {
+		this.offset = offset;
+		ByteBuffer slice = buf.slice();
+		header = RPMHeader.read(new RPMReader(slice), fourCC);
+		int size = header.getModuleSize();
+		if (size > 0 && size <= slice.limit()) {
+			slice.limit(size);
+		}
+		this.buf = slice;
+	}
+
+	public RPMHandle(ByteBuffer buf) throws IOException {
+		this(buf, null);
+	}
+
+	/**
+	 * Opens a module file, mapping it into memory.
+	 *
+	 * @param file The file to open.
+	 * @param fourCC Four character magic to validate files with.
+	 * @return A handle of the module.
+	 * @throws IOException
+	 */
+	public static RPMHandle open(File file, String fourCC) throws IOException {
+		return new RPMHandle(RPM.mapFile(file), fourCC);
+	}
+
+	public static RPMHandle open(File file) throws IOException {
+		return open(file, null);
+	}
+
+	/**
+	 * Gets the format revision of the module.
+	 *
+	 * @return An RPMRevisions constant.
+	 */
+	public int getVersion() {
+		return header.version;
+	}
+
+	/**
+	 * Gets the offset of the module in the image it was opened from.
+	 *
+	 * @return Offset of the module, 0 if it was opened standalone.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Gets the size of the module in bytes.
+	 *
+	 * @return The size of the module. If it can not be told from the header, the size of the whole buffer.
+	 */
+	public int getLength() {
+		int size = header.getModuleSize();
+		if (size == -1) {
+			return buf.limit();
+		}
+		return size;
+	}
+
+	public int getCodeSize() {
+		return header.codeSize;
+	}
+
+	public int getBssSize() {
+		return header.bssSize;
+	}
+
+	/**
+	 * Gets the metadata of the module, decoding only the META section.
+	 *
+	 * @return The module's metadata.
+	 */
+	public RPMMetaData getMetaData() {
+		if (!metaDataLoaded) {
+			metaDataLoaded = true;
+			try {
+				getShell().readMetaDataSection(getReader(), header);
+			} catch (IOException ex) {
+				Logger.getLogger(RPMHandle.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+		return getShell().metaData;
+	}
+
+	/**
+	 * Gets the symbols of the module, decoding the SYM section and the static initializer/finalizer arrays.
+	 *
+	 * @return The module's symbols.
+	 */
+	public List<RPMSymbol> getSymbols() {
+		if (!symbolsLoaded) {
+			symbolsLoaded = true;
+			try {
+				getShell().readSymbolSections(getReader(), header);
+			} catch (IOException ex) {
+				Logger.getLogger(RPMHandle.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+		return getShell().symbols;
+	}
+
+	/**
+	 * Reads the symbols of the module into a compact symbol table, without creating RPMSymbol objects
+	 * for them.
+	 *
+	 * @return A new symbol table, or null if the SYM section can not be read.
+	 */
+	public RPMSymbolTable getSymbolTable() {
+		try {
+			return RPMSymbolTable.read(getReader(), header);
+		} catch (IOException ex) {
+			Logger.getLogger(RPMHandle.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the relocations of the module, decoding the SYM and REL sections.
+	 *
+	 * @return The module's relocations.
+	 */
+	public List<RPMRelocation> getRelocations() {
+		getSymbols();
+		if (!relocationsLoaded) {
+			relocationsLoaded = true;
+			try {
+				getShell().readRelocationSection(getReader(), header);
+			} catch (IOException ex) {
+				Logger.getLogger(RPMHandle.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+		return getShell().relocations;
+	}
+
+	/**
+	 * Decodes all remaining sections of the module.
+	 *
+	 * @return The fully decoded RPM. Subsequent calls return the same instance.
+	 */
+	public RPM toRPM() {
+		getMetaData();
+		getRelocations();
+		if (!codeLoaded) {
+			codeLoaded = true;
+			try {
+				getShell().readCodeSegment(getReader(), header);
+			} catch (IOException ex) {
+				Logger.getLogger(RPMHandle.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+		return rpm;
+	}
+
+	/**
+	 * Finds an export symbol by name directly in the module's export hash table.
+	 *
+	 * The symbol list is not decoded. Modules of revision REV_SORTED_IMEX_SYMBOLS and newer are searched
+	 * in logarithmic time, older modules with an export hash table are scanned linearly.
+	 *
+	 * @param name Name of the symbol.
+	 * @return Index of the symbol in the module's symbol table, or -1 if not found.
+	 */
+	public int findExportSymbolNo(String name) {
+		if (name == null) {
+			return -1;
+		}
+		if (!loadExportTableInfo()) {
+			List<RPMSymbol> syms = getSymbols();
+			for (int i = 0; i < syms.size(); i++) {
+				RPMSymbol s = syms.get(i);
+				if (s.isExportSymbol() && name.equals(s.name)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int hash = RPMSymbol.getNameHash(name);
+		int symNo = findExportSymbolNo(hash);
+		if (symNo == -1) {
+			return -1;
+		}
+		//walk all symbols with an equal hash, names are compared only if not stripped
+		boolean sorted = header.version >= RPMRevisions.REV_SORTED_IMEX_SYMBOLS;
+		int end = firstExportSymbolIdx + exportSymbolCount;
+		for (int i = symNo; i < end; i++) {
+			if (getExportHash(i) != hash) {
+				if (sorted) {
+					break;
+				}
+				continue;
+			}
+			int nameOffs = reader.getUnsignedShortAt(getSymbolEntryOffset(i));
+			if (nameOffs == 0 || reader.stringEqualsAt(nameOffs, name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds an export symbol by its FNV-1a name hash directly in the module's export hash table.
+	 *
+	 * @param nameHash Hash of the symbol name, as returned by RPMSymbol.getNameHash.
+	 * @return Index of the first symbol with the hash in the module's symbol table, or -1 if not found.
+	 */
+	public int findExportSymbolNo(int nameHash) {
+		if (!loadExportTableInfo()) {
+			List<RPMSymbol> syms = getSymbols();
+			for (int i = 0; i < syms.size(); i++) {
+				RPMSymbol s = syms.get(i);
+				if (s.isExportSymbol() && s.nameHash == nameHash) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int end = firstExportSymbolIdx + exportSymbolCount;
+		if (header.version < RPMRevisions.REV_SORTED_IMEX_SYMBOLS) {
+			for (int i = firstExportSymbolIdx; i < end; i++) {
+				if (getExportHash(i) == nameHash) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int low = firstExportSymbolIdx;
+		int high = end - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = Integer.compareUnsigned(getExportHash(mid), nameHash);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				//rewind to the first of equal hashes
+				while (mid > firstExportSymbolIdx && getExportHash(mid - 1) == nameHash) {
+					mid--;
+				}
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the absolute address of a symbol in the module's symbol table without decoding the symbol list.
+	 *
+	 * @param symNo Index of the symbol.
+	 * @return The absolute address of the symbol for the module's current base address.
+	 */
+	public int getSymbolAddrAbs(int symNo) {
+		if (!loadExportTableInfo() || header.version < RPMRevisions.REV_GLOBAL_IN_SYMATTR) {
+			return toRPM().symbols.get(symNo).getAddrAbs();
+		}
+		if (symNo < 0 || symNo >= symbolCount) {
+			throw new IndexOutOfBoundsException("Symbol index " + symNo + " out of range.");
+		}
+		int entry = getSymbolEntryOffset(symNo);
+		int address = reader.getIntAt(entry + 4);
+		int attributes = reader.getUnsignedByteAt(entry + 9);
+		if ((attributes & RPMSymbol.RPM_SYMATTR_GLOBAL) != 0) {
+			return address;
+		}
+		return baseAddress + RPM.RPM_PROLOG_SIZE + address;
+	}
+
+	private int getExportHash(int symNo) {
+		return reader.getIntAt(exportSymbolHashTableOffset + (symNo - firstExportSymbolIdx) * Integer.BYTES);
+	}
+
+	private int getSymbolEntryOffset(int symNo) {
+		return symbolTableOffset + symNo * RPMSymbol.BYTES;
+	}
+
+	/**
+	 * Reads the SYM section header for lookups in the raw symbol and hash tables.
+	 *
+	 * @return True if the module has an export hash table that can be searched.
+	 */
+	private boolean loadExportTableInfo() {
+		if (symbolCount == -1) {
+			symbolCount = 0;
+			if (header.symbolsOffset < 0 || header.version < RPMRevisions.REV_IMPORT_EXPORT_SYMBOL_HASHTABLES) {
+				return false;
+			}
+			try {
+				RPMReader in = getReader();
+				baseAddress = RPM.readBaseAddress(in, header);
+				in.seek(header.symbolsOffset);
+				if (!in.checkMagic(RPM.SYM_MAGIC)) {
+					throw new InvalidMagicException("SYM section not present!");
+				}
+				in.readHeaderOffset(); //extern module list
+				firstExportSymbolIdx = in.readUnsignedShort();
+				exportSymbolCount = in.readUnsignedShort();
+				in.readUnsignedShort(); //first import symbol
+				in.readUnsignedShort(); //import symbol count
+				exportSymbolHashTableOffset = in.readHeaderOffset();
+				symbolCount = in.readInt();
+				symbolTableOffset = in.getPosition();
+				if (exportSymbolHashTableOffset == -1 || firstExportSymbolIdx == 0xFFFF) {
+					exportSymbolCount = 0;
+					firstExportSymbolIdx = 0;
+				}
+				exportTableAvailable = true;
+			} catch (IOException ex) {
+				Logger.getLogger(RPMHandle.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+		return exportTableAvailable;
+	}
+
+	private RPM getShell() {
+		if (rpm == null) {
+			rpm = new RPM();
+			rpm.bssSize = header.bssSize;
+		}
+		return rpm;
+	}
+
+	/**
+	 * Gets the reader shared by all sections of the module, so that strings referenced from multiple
+	 * sections are decoded only once.
+	 */
+	private RPMReader getReader() {
+		if (reader == null) {
+			reader = header.createReader(buf);
+		}
+		return reader;
+	}
+}
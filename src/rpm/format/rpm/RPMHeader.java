@@ -0,0 +1,164 @@
+package rpm.format.rpm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import xstandard.io.InvalidMagicException;
+
+/**
+ * Prolog, DllExec and INFO header data of an RPM binary.
+ *
+ * All section offsets are absolute within the module, -1 if the section is not present.
+ */
+class RPMHeader {
+
+	public int version;
+
+	public int headerOffsetBase = 0;
+	public int fileSize = -1;
+	public int execHeaderOffset = -1;
+	public int headerSectionSize = -1;
+	public int bssSize = 0;
+
+	public int symbolsOffset = -1;
+	public int relocationsOffset = -1;
+	public int stringsOffset = -1;
+	public int codeOffset = 0;
+	public int codeSize;
+	public int metaDataOffset = -1;
+	public int sinitOffset = -1;
+	public int sfiniOffset = -1;
+
+	/**
+	 * Reads the header of a module.
+	 *
+	 * The reader is set up for the module's revision and string table once the header has been read.
+	 *
+	 * @param reader An RPMReader at the start of the module.
+	 * @param fourCC Four character magic to validate files with.
+	 * @return The header.
+	 * @throws IOException
+	 */
+	public static RPMHeader read(RPMReader reader, String fourCC) throws IOException {
+		if (fourCC == null) {
+			fourCC = RPM.RPM_PROLOG_MAGIC;
+		}
+
+		RPMHeader h = new RPMHeader();
+		int endPos = reader.getLength();
+
+		int version = 0xFF;
+
+		if (reader.checkMagic(fourCC)) { //dlxf prolog
+			h.fileSize = reader.readInt(); //unpacked if version over REV_BSS_EXPANSION
+			h.execHeaderOffset = reader.readInt();
+			reader.seek(h.execHeaderOffset);
+			if (!reader.checkMagic(RPM.RPM_DLLEXEC_HEADER_MAGIC)) {
+				throw new InvalidMagicException("Incorrect RPM DllExec header!");
+			}
+		} else { //legacy
+			reader.seek(endPos - RPM.RPM_FOOTER_SIZE);
+			if (!reader.checkMagic(RPM.RPM_LEGACY_MAGIC)) {
+				reader.seek(endPos - RPM.RPM_FOOTER_SIZE_LEGACY);
+				if (!reader.checkMagic(RPM.RPM_LEGACY_MAGIC)) {
+					throw new InvalidMagicException("Not an RPM file!");
+				}
+			}
+			version = reader.read();
+		}
+
+		int infoSectionOffset = -1;
+		if (version != 0xFF) {
+			version = version - '0';
+			reader.setVersion(version);
+		} else {
+			version = reader.readInt();
+			reader.setVersion(version);
+			if (reader.versionOver(RPMRevisions.REV_BSS_EXPANSION)) {
+				h.headerOffsetBase = reader.getPosition() - Integer.BYTES * 2;
+				reader.setHeaderOffsetBase(h.headerOffsetBase);
+			}
+			if (reader.versionOver(RPMRevisions.REV_PRODUCT_INFO)) {
+				if (reader.versionOver(RPMRevisions.REV_INFO_SECTION)) {
+					infoSectionOffset = reader.readHeaderOffset();
+					if (reader.versionOver(RPMRevisions.REV_BSS_EXPANSION)) {
+						h.bssSize = reader.readInt();
+						h.headerSectionSize = reader.readInt();
+					} else {
+						reader.skipBytes(4); //reserved
+					}
+				} else {
+					//product ID and product version fields. DISCONTINUED.
+					reader.skipBytes(8);
+				}
+			} else {
+				reader.skipBytes(8);
+			}
+		}
+		h.version = version;
+
+		if (infoSectionOffset == -1) {
+			h.symbolsOffset = reader.readInt();
+			h.relocationsOffset = reader.readInt();
+			if (reader.versionOver(RPMRevisions.REV_SMALL_SYMBOLS)) {
+				h.stringsOffset = reader.readInt();
+			}
+			h.codeSize = reader.readInt();
+		} else {
+			//RPM v. REV_INFO_SECTION+
+			reader.seek(infoSectionOffset);
+			if (!reader.checkMagic(RPM.INFO_MAGIC)) {
+				throw new InvalidMagicException("INFO section not present!");
+			}
+			h.symbolsOffset = reader.readHeaderOffset();
+			h.relocationsOffset = reader.readHeaderOffset();
+			h.stringsOffset = reader.readHeaderOffset();
+			if (reader.versionOver(RPMRevisions.REV_INDEPENDENT_CODE_SEG)) {
+				h.codeOffset = reader.readInt();
+			}
+			h.codeSize = reader.readInt();
+			if (reader.versionOver(RPMRevisions.REV_SINIT_SFINI)) {
+				h.sinitOffset = reader.readHeaderOffset();
+				h.sfiniOffset = reader.readHeaderOffset();
+			}
+			h.metaDataOffset = reader.readHeaderOffset();
+		}
+
+		if (h.stringsOffset >= 0) {
+			reader.seek(h.stringsOffset);
+			if (!reader.checkMagic(RPM.STR_MAGIC)) {
+				throw new InvalidMagicException("STR section not present!");
+			}
+			reader.setStrTableOffsHere();
+		}
+
+		return h;
+	}
+
+	/**
+	 * Creates a reader over a module buffer, set up for this header's revision and string table.
+	 *
+	 * @param buf A buffer whose remaining content is the module.
+	 * @return The reader.
+	 */
+	public RPMReader createReader(ByteBuffer buf) {
+		RPMReader reader = new RPMReader(buf);
+		reader.setVersion(version);
+		reader.setHeaderOffsetBase(headerOffsetBase);
+		if (stringsOffset >= 0) {
+			reader.setStrTableOffs(stringsOffset + RPM.STR_MAGIC.length());
+		}
+		return reader;
+	}
+
+	/**
+	 * Gets the size of the module in bytes, as far as it can be told from the header.
+	 *
+	 * @return The size of the module, or -1 if unknown.
+	 */
+	public int getModuleSize() {
+		if (execHeaderOffset != -1 && headerSectionSize != -1) {
+			return execHeaderOffset + headerSectionSize;
+		}
+		return fileSize;
+	}
+}
@@ -0,0 +1,283 @@
+package rpm.format.rpm;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import xstandard.math.MathEx;
+
+/**
+ * Layout plan of the header section of an RPM image.
+ *
+ * A plan is computed in a single pass over the module and holds everything the writer needs to know in
+ * advance: the export symbol order, the string table contents and the exact size of every section. It
+ * stays valid until the symbol, relocation or metadata lists of the module are changed. Changes of
+ * symbol or relocation fields in place are not tracked, but can be checked for with describes before
+ * the plan is written.
+ */
+class RPMLayout {
+
+	public final List<RPMSymbol> symbolOrder;
+	public final RPMStringTableBuilder strings;
+
+	public int metaDataSize;
+	public int stringTableSize;
+	public int symbolTableSize;
+	public int symbolRefArraysSize;
+	public int relocationTableSize;
+
+	/**
+	 * Size of the header section without the relocation table.
+	 */
+	private int baseSectionsSize;
+
+	private int exportSymbolCount;
+	private int importSymbolCount;
+	private final Set<String> externModules = new LinkedHashSet<>();
+	private int externalRelocationCount;
+	private int importRelocationCount;
+	private int internalRelocationCount;
+
+	private List<RPMSymbol> symbolsList;
+	private int symbolsCount;
+	private int symbolsModCount;
+	private List<RPMRelocation> relocationsList;
+	private int relocationsCount;
+	private int relocationsModCount;
+	private RPMMetaData metaData;
+	private int metaDataModCount;
+	private int sinitCount;
+	private int sfiniCount;
+	private int layoutModCount;
+
+	private RPMLayout(List<RPMSymbol> symbolOrder, RPMStringTableBuilder strings) {
+		this.symbolOrder = symbolOrder;
+		this.strings = strings;
+	}
+
+	/**
+	 * Computes the layout plan of a module.
+	 *
+	 * @param rpm The module.
+	 * @param layoutModCount Explicit invalidation counter of the module.
+	 * @return The plan.
+	 */
+	public static RPMLayout create(RPM rpm, int layoutModCount) {
+		RPMStringTableBuilder strings = new RPMStringTableBuilder();
+		RPMLayout layout = new RPMLayout(RPM.sortSymbolsForExport(rpm.symbols), strings);
+
+		int size = RPM.RPM_DLLEXEC_HEADER_SIZE + RPM.RPM_INFO_HEADER_SIZE;
+
+		//Metadata
+		if (rpm.metaData.getValueCount() != 0) {
+			rpm.metaData.registStrings(strings);
+			layout.metaDataSize = MathEx.padInteger(size + 4 + rpm.metaData.getByteSize(), RPM.RPM_PADDING) - size;
+			size += layout.metaDataSize;
+		}
+
+		for (RPMSymbol sym : layout.symbolOrder) {
+			strings.add(sym.name);
+		}
+		for (RPMRelocation rel : rpm.relocations) {
+			rel.registStrings(strings);
+		}
+		strings.build();
+
+		//String table
+		if (strings.getStringCount() != 0) {
+			layout.stringTableSize = MathEx.padInteger(size + 4 + strings.getSize(), RPM.RPM_PADDING) - size;
+			size += layout.stringTableSize;
+		}
+
+		//Symbol table
+		for (RPMSymbol sym : layout.symbolOrder) {
+			if (sym.isExportSymbol()) {
+				layout.exportSymbolCount++;
+			}
+			if (sym.isImportSymbol()) {
+				layout.importSymbolCount++;
+			}
+		}
+		if (!layout.symbolOrder.isEmpty()) {
+			int exportCount = layout.exportSymbolCount;
+			int importCount = layout.importSymbolCount;
+			int end = size + 24 + layout.symbolOrder.size() * 12;
+			end = MathEx.padInteger(end, 4);
+			if (exportCount != 0) {
+				//the writer terminates the export hash table after the first non-export symbol
+				end += (exportCount + (importCount != 0 ? 1 : 0)) * 4;
+			}
+			layout.symbolTableSize = MathEx.padInteger(end, RPM.RPM_PADDING) - size;
+			size += layout.symbolTableSize;
+		}
+
+		//SINIT/SFINI
+		int end = size;
+		if (!rpm.sinitSymbols.isEmpty()) {
+			end += (rpm.sinitSymbols.size() + 1) * 2;
+		}
+		if (!rpm.sfiniSymbols.isEmpty()) {
+			end += (rpm.sfiniSymbols.size() + 1) * 2;
+		}
+		layout.symbolRefArraysSize = MathEx.padInteger(end, RPM.RPM_PADDING) - size;
+		size += layout.symbolRefArraysSize;
+
+		//Relocation table, laid out even if it is not written, since that depends on the base address
+		for (RPMRelocation rel : rpm.relocations) {
+			if (rel.target.isExternal()) {
+				layout.externModules.add(rel.target.module);
+				layout.externalRelocationCount++;
+			} else if (rel.source.symb.isImportSymbol()) {
+				layout.importRelocationCount++;
+			} else {
+				layout.internalRelocationCount++;
+			}
+		}
+		end = size + 24;
+		end += 4 + layout.externalRelocationCount * 8;
+		end = MathEx.padInteger(end, 4);
+		end += 2 + layout.externModules.size() * 2;
+		end = MathEx.padInteger(end, 4);
+		end += 4 + layout.importRelocationCount * 8;
+		end = MathEx.padInteger(end, 4);
+		end += 4 + layout.internalRelocationCount * 8;
+		layout.relocationTableSize = MathEx.padInteger(end, RPM.RPM_PADDING) - size;
+
+		layout.baseSectionsSize = size;
+		layout.stamp(rpm, layoutModCount);
+		return layout;
+	}
+
+	/**
+	 * Records the state of the module that the plan was computed for.
+	 *
+	 * @param rpm The module.
+	 * @param layoutModCount Explicit invalidation counter of the module.
+	 */
+	public void stamp(RPM rpm, int layoutModCount) {
+		symbolsList = rpm.symbols;
+		symbolsCount = rpm.symbols.size();
+		symbolsModCount = getModCount(rpm.symbols);
+		relocationsList = rpm.relocations;
+		relocationsCount = rpm.relocations.size();
+		relocationsModCount = getModCount(rpm.relocations);
+		metaData = rpm.metaData;
+		metaDataModCount = rpm.metaData.getModCount();
+		sinitCount = rpm.sinitSymbols.size();
+		sfiniCount = rpm.sfiniSymbols.size();
+		this.layoutModCount = layoutModCount;
+	}
+
+	/**
+	 * Checks whether the plan still describes a module.
+	 *
+	 * @param rpm The module.
+	 * @param layoutModCount Explicit invalidation counter of the module.
+	 * @return True if the plan can be used.
+	 */
+	public boolean isValid(RPM rpm, int layoutModCount) {
+		return this.layoutModCount == layoutModCount
+			&& symbolsList == rpm.symbols
+			&& symbolsCount == rpm.symbols.size()
+			&& symbolsModCount == getModCount(rpm.symbols)
+			&& relocationsList == rpm.relocations
+			&& relocationsCount == rpm.relocations.size()
+			&& relocationsModCount == getModCount(rpm.relocations)
+			&& metaData == rpm.metaData
+			&& metaDataModCount == rpm.metaData.getModCount()
+			&& sinitCount == rpm.sinitSymbols.size()
+			&& sfiniCount == rpm.sfiniSymbols.size()
+			&& symbolsModCount != -1
+			&& relocationsModCount != -1;
+	}
+
+	/**
+	 * Checks whether the plan still describes the symbols and relocations of a module, which may have been
+	 * changed in place since it was computed. The export order, the symbol kinds and names and the kinds
+	 * and target modules of the relocations are compared.
+	 *
+	 * @param rpm The module.
+	 * @param symbolOrder The current export order of the symbols of the module.
+	 * @return True if the plan can be written for the module.
+	 */
+	public boolean describes(RPM rpm, List<RPMSymbol> symbolOrder) {
+		if (symbolOrder.size() != this.symbolOrder.size()) {
+			return false;
+		}
+		int exportCount = 0;
+		int importCount = 0;
+		for (int i = 0; i < symbolOrder.size(); i++) {
+			RPMSymbol sym = symbolOrder.get(i);
+			if (sym != this.symbolOrder.get(i) || !strings.contains(sym.name)) {
+				return false;
+			}
+			if (sym.isExportSymbol()) {
+				exportCount++;
+			}
+			if (sym.isImportSymbol()) {
+				importCount++;
+			}
+		}
+		if (exportCount != exportSymbolCount || importCount != importSymbolCount) {
+			return false;
+		}
+
+		Set<String> modules = new LinkedHashSet<>();
+		int externalCount = 0;
+		int importRelCount = 0;
+		int internalCount = 0;
+		for (RPMRelocation rel : rpm.relocations) {
+			if (rel.target.isExternal()) {
+				if (!strings.contains(rel.target.module)) {
+					return false;
+				}
+				modules.add(rel.target.module);
+				externalCount++;
+			} else if (rel.source.symb.isImportSymbol()) {
+				importRelCount++;
+			} else {
+				internalCount++;
+			}
+		}
+		return externalCount == externalRelocationCount
+			&& importRelCount == importRelocationCount
+			&& internalCount == internalRelocationCount
+			&& modules.equals(externModules);
+	}
+
+	/**
+	 * Checks whether the image has a relocation table when written for a base address.
+	 *
+	 * @param baseAddress Base address of the image.
+	 * @return
+	 */
+	public boolean hasRelocationTable(int baseAddress) {
+		return relocationsCount != 0 || baseAddress != 0;
+	}
+
+	/**
+	 * Gets the offset of the relocation table from the start of the header section. The relocation table
+	 * is the last section.
+	 *
+	 * @return
+	 */
+	public int getRelocationTableOffset() {
+		return baseSectionsSize;
+	}
+
+	/**
+	 * Gets the exact size of the header section.
+	 *
+	 * @param baseAddress Base address of the image.
+	 * @return
+	 */
+	public int getHeaderSectionSize(int baseAddress) {
+		return baseSectionsSize + (hasRelocationTable(baseAddress) ? relocationTableSize : 0);
+	}
+
+	private static int getModCount(List<?> list) {
+		if (list instanceof TrackedList) {
+			return ((TrackedList<?>) list).getNonAppendModCount();
+		}
+		return -1;
+	}
+}
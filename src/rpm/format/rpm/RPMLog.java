@@ -0,0 +1,107 @@
+package rpm.format.rpm;
+
+import java.util.function.Supplier;
+
+/**
+ * Level-gated log of the RPM tools.
+ *
+ * Messages are passed as suppliers, which are not evaluated if their level is disabled, so that disabled
+ * logging on hot paths costs no string building or console I/O. The level can be set with the rpm.log.level
+ * system property, and defaults to INFO. Messages are printed to standard output unless another sink is set.
+ */
+public class RPMLog {
+
+	public static enum LogLevel {
+		TRACE,
+		DEBUG,
+		INFO,
+		WARN,
+		ERROR,
+		OFF
+	}
+
+	/**
+	 * Receiver of enabled log messages.
+	 */
+	public static interface Sink {
+
+		public void log(LogLevel level, String message);
+	}
+
+	private static volatile LogLevel level = getDefaultLevel();
+	private static volatile Sink sink = (lvl, message) -> System.out.println(message);
+
+	private RPMLog() {
+
+	}
+
+	private static LogLevel getDefaultLevel() {
+		String name = System.getProperty("rpm.log.level");
+		if (name != null) {
+			for (LogLevel l : LogLevel.values()) {
+				if (l.name().equalsIgnoreCase(name)) {
+					return l;
+				}
+			}
+		}
+		return LogLevel.INFO;
+	}
+
+	/**
+	 * Sets the minimum level of messages to log.
+	 *
+	 * @param level The level, OFF to disable logging.
+	 */
+	public static void setLevel(LogLevel level) {
+		RPMLog.level = level;
+	}
+
+	public static LogLevel getLevel() {
+		return level;
+	}
+
+	/**
+	 * Sets the receiver of log messages.
+	 *
+	 * @param sink The sink.
+	 */
+	public static void setSink(Sink sink) {
+		RPMLog.sink = sink;
+	}
+
+	/**
+	 * Checks if messages of a level are logged.
+	 *
+	 * @param l The level.
+	 * @return
+	 */
+	public static boolean isEnabled(LogLevel l) {
+		return l.compareTo(level) >= 0 && l != LogLevel.OFF;
+	}
+
+	public static void log(LogLevel l, Supplier<String> message) {
+		if (isEnabled(l)) {
+			sink.log(l, message.get());
+		}
+	}
+
+	public static void trace(Supplier<String> message) {
+		log(LogLevel.TRACE, message);
+	}
+
+	public static void debug(Supplier<String> message) {
+		log(LogLevel.DEBUG, message);
+	}
+
+	public static void info(Supplier<String> message) {
+		log(LogLevel.INFO, message);
+	}
+
+	public static void warn(Supplier<String> message) {
+		log(LogLevel.WARN, message);
+	}
+
+	public static void error(Supplier<String> message) {
+		log(LogLevel.ERROR, message);
+	}
+}
@@ -1,6 +1,5 @@
 package rpm.format.rpm;
 
-import xstandard.io.structs.StringTable;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -13,6 +12,7 @@ import java.util.List;
 public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 
 	private List<RPMMetaValue> values = new ArrayList<>();
+	private int modCount = 0;
 
 	public void addValues(RPMMetaData other) {
 		addValues(other.values);
@@ -20,6 +20,7 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 
 	public void addValues(List<RPMMetaValue> values) {
 		this.values.addAll(values);
+		modCount++;
 	}
 
 	/**
@@ -29,10 +30,12 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 	 * @throws IOException
 	 */
 	void readMetaData(RPMReader in) throws IOException {
+		RPMDecoder decoder = in.getDecoder();
 		int valueCount = in.aligned() ? in.readInt() : in.readUnsignedShort();
 		for (int i = 0; i < valueCount; i++) {
-			values.add(new RPMMetaValue(in));
+			values.add(decoder.readMetaValue(in));
 		}
+		modCount++;
 	}
 
 	/**
@@ -42,7 +45,7 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 	 * @param strtab A String table accessible from the stream.
 	 * @throws IOException
 	 */
-	void writeMetaData(DataOutput out, StringTable strtab) throws IOException {
+	void writeMetaData(DataOutput out, RPMStringTableBuilder strtab) throws IOException {
 		out.writeInt(values.size());
 		for (RPMMetaValue v : values) {
 			v.write(out, strtab);
@@ -63,9 +66,9 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 		return size;
 	}
 
-	void addStrings(List<String> l) {
+	void registStrings(RPMStringTableBuilder strtab) {
 		for (RPMMetaValue val : values) {
-			val.addStrings(l);
+			val.registStrings(strtab);
 		}
 	}
 
@@ -78,6 +81,7 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 		if (val != null) {
 			removeValue(findValue(val.name));
 			values.add(val);
+			modCount++;
 		}
 	}
 
@@ -111,7 +115,9 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 	 * @param val The value to remove.
 	 */
 	public void removeValue(RPMMetaValue val) {
-		values.remove(val);
+		if (values.remove(val)) {
+			modCount++;
+		}
 	}
 
 	/**
@@ -123,6 +129,15 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 		return values.size();
 	}
 
+	/**
+	 * Gets a counter of changes to the values of this metadata.
+	 *
+	 * @return The modification counter.
+	 */
+	int getModCount() {
+		return modCount;
+	}
+
 	@Override
 	public Iterator<RPMMetaValue> iterator() {
 		return values.iterator();
@@ -158,7 +173,13 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 			}
 		}
 
-		private RPMMetaValue(RPMReader in) throws IOException {
+		RPMMetaValue(String name, RPMMetaValueType type, Object value) {
+			this.name = name;
+			this.type = type;
+			this.value = value;
+		}
+
+		RPMMetaValue(RPMReader in) throws IOException {
 			name = in.readStringWithAddress();
 			type = RPMMetaValueType.values()[in.read()];
 			if (in.aligned()) {
@@ -196,10 +217,10 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 			return size;
 		}
 
-		void addStrings(List<String> l) {
-			l.add(name);
+		void registStrings(RPMStringTableBuilder strtab) {
+			strtab.add(name);
 			if (type == RPMMetaValueType.STRING) {
-				l.add(stringValue());
+				strtab.add((String) value);
 			}
 		}
 
@@ -225,12 +246,12 @@ public class RPMMetaData implements Iterable<RPMMetaData.RPMMetaValue> {
 			}
 		}
 
-		void write(DataOutput out, StringTable strtab) throws IOException {
-			strtab.putStringOffset(name);
+		void write(DataOutput out, RPMStringTableBuilder strtab) throws IOException {
+			strtab.writeOffset(out, name);
 			out.write(type.ordinal());
 			out.write(0);
 			if (type == RPMMetaValueType.STRING) {
-				strtab.putStringOffset((String) value);
+				strtab.writeOffset(out, (String) value);
 				out.writeShort(0);
 			} else {
 				out.writeInt((Integer) value);
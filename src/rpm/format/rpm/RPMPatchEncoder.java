@@ -0,0 +1,243 @@
+package rpm.format.rpm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder of relocation patches into instruction words.
+ *
+ * Instructions are computed as plain ints from the address of the patched field and the target address,
+ * and stored into a buffer with absolute puts, so that no stream state is involved and a single encoder
+ * can be used for any buffer and offset. Buffers passed to the put methods must be little-endian.
+ */
+public class RPMPatchEncoder {
+
+	/**
+	 * Condition field of an unconditional ARM instruction.
+	 */
+	public static final int ARM_COND_AL = 0xE;
+
+	/**
+	 * Size of a Thumb branch that is out of range of the short form, including its literal.
+	 */
+	public static final int THUMB_LONG_BRANCH_SIZE = 12;
+
+	/**
+	 * Maximum size of a SAFESTACK thunk, including its literal and the alignment padding before it.
+	 */
+	public static final int THUMB_SAFESTACK_MAX_SIZE = 18;
+
+	/**
+	 * Size of a shared Thumb long-branch veneer, including its literal.
+	 */
+	public static final int THUMB_VENEER_SIZE = 12;
+
+	private static final int THUMB_PUSH_LR = 0xB500;
+	private static final int THUMB_POP_PC = 0xBD00;
+
+	private RPMPatchEncoder() {
+
+	}
+
+	/**
+	 * Encodes an ARM B or BL instruction.
+	 *
+	 * @param pc Address of the instruction.
+	 * @param addr Target address.
+	 * @param link True for BL.
+	 * @param cond Condition field.
+	 * @return
+	 */
+	public static int encodeARMBranch(int pc, int addr, boolean link, int cond) {
+		return (cond << 28) | (link ? 0x0B000000 : 0x0A000000) | (((addr - (pc + 8)) >> 2) & 0xFFFFFF);
+	}
+
+	/**
+	 * Encodes an ARM BLX instruction to a Thumb target.
+	 *
+	 * @param pc Address of the instruction.
+	 * @param addr Target address.
+	 * @return
+	 */
+	public static int encodeARMBranchLinkExchange(int pc, int addr) {
+		int off = addr - (pc + 8);
+		return 0xFA000000 | ((off & 2) << 23) | ((off >> 2) & 0xFFFFFF);
+	}
+
+	/**
+	 * Encodes a Thumb BL or BLX instruction pair. The first halfword is in the low 16 bits, so that the
+	 * result can be stored as a little-endian int.
+	 *
+	 * @param pc Address of the instruction pair.
+	 * @param addr Target address.
+	 * @param exchange True for BLX to an ARM target.
+	 * @return
+	 */
+	public static int encodeThumbBranchLink(int pc, int addr, boolean exchange) {
+		int off;
+		int low;
+		if (exchange) {
+			off = addr - ((pc + 4) & ~3);
+			low = 0xE800 | ((off >> 1) & 0x7FE);
+		} else {
+			off = addr - (pc + 4);
+			low = 0xF800 | ((off >> 1) & 0x7FF);
+		}
+		int high = 0xF000 | ((off >> 12) & 0x7FF);
+		return (low << 16) | high;
+	}
+
+	/**
+	 * Checks if a Thumb target is in range of the short unconditional branch.
+	 *
+	 * @param pc Address of the instruction.
+	 * @param addr Target address.
+	 * @return
+	 */
+	public static boolean isThumbShortBranchInRange(int pc, int addr) {
+		return Math.abs((pc + 4) - addr) < 2048;
+	}
+
+	/**
+	 * Encodes a short Thumb B instruction.
+	 *
+	 * @param pc Address of the instruction.
+	 * @param addr Target address.
+	 * @return
+	 */
+	public static short encodeThumbShortBranch(int pc, int addr) {
+		return (short) (0xE000 | (((addr - (pc + 4)) >> 1) & 0x7FF));
+	}
+
+	/**
+	 * Encodes a 31-bit self-relative offset, keeping the high bit of the original word.
+	 *
+	 * @param pc Address of the word.
+	 * @param addr Target address.
+	 * @param oldWord The word that is being replaced.
+	 * @return
+	 */
+	public static int encodeRel31(int pc, int addr, int oldWord) {
+		return ((addr - pc) & 0x7FFFFFFF) | (oldWord & 0x80000000);
+	}
+
+	/**
+	 * Stores an ARM B or BL instruction.
+	 *
+	 * @param buf The buffer.
+	 * @param index Index of the instruction in the buffer.
+	 * @param pc Address of the instruction.
+	 * @param addr Target address.
+	 * @param link True for BL.
+	 */
+	public static void putARMBranch(ByteBuffer buf, int index, int pc, int addr, boolean link) {
+		buf.putInt(index, encodeARMBranch(pc, addr, link, ARM_COND_AL));
+	}
+
+	/**
+	 * Stores an ARM BLX instruction to a Thumb target.
+	 *
+	 * @param buf The buffer.
+	 * @param index Index of the instruction in the buffer.
+	 * @param pc Address of the instruction.
+	 * @param addr Target address.
+	 */
+	public static void putARMBranchLinkExchange(ByteBuffer buf, int index, int pc, int addr) {
+		buf.putInt(index, encodeARMBranchLinkExchange(pc, addr));
+	}
+
+	/**
+	 * Stores a Thumb BL or BLX instruction pair.
+	 *
+	 * @param buf The buffer.
+	 * @param index Index of the instruction pair in the buffer.
+	 * @param pc Address of the instruction pair.
+	 * @param addr Target address.
+	 * @param exchange True for BLX to an ARM target.
+	 */
+	public static void putThumbBranchLink(ByteBuffer buf, int index, int pc, int addr, boolean exchange) {
+		buf.putInt(index, encodeThumbBranchLink(pc, addr, exchange));
+	}
+
+	/**
+	 * Stores a Thumb branch. Targets out of range of the short branch are reached through
+	 * PUSH {LR}, BL, POP {PC} followed by the target address.
+	 *
+	 * @param buf The buffer.
+	 * @param index Index of the branch in the buffer.
+	 * @param pc Address of the branch.
+	 * @param addr Target address.
+	 * @return Number of bytes written.
+	 */
+	public static int putThumbBranch(ByteBuffer buf, int index, int pc, int addr) {
+		if (isThumbShortBranchInRange(pc, addr)) {
+			buf.putShort(index, encodeThumbShortBranch(pc, addr));
+			return 2;
+		}
+		buf.putShort(index, (short) THUMB_PUSH_LR);
+		buf.putInt(index + 2, encodeThumbBranchLink(pc + 2, addr, (addr & 1) == 0));
+		buf.putShort(index + 6, (short) THUMB_POP_PC);
+		buf.putInt(index + 8, addr);
+		return THUMB_LONG_BRANCH_SIZE;
+	}
+
+	/**
+	 * Stores a SAFESTACK thunk, which branches to the target through R12 without touching the stack or
+	 * the argument registers:
+	 *
+	 * MOV R11, R4; LDR R4, [PC, #8]; MOV R12, R4; MOV R4, R11; BX R12
+	 *
+	 * The target address is stored at the literal that the load points to.
+	 *
+	 * @param buf The buffer.
+	 * @param index Index of the thunk in the buffer.
+	 * @param pc Address of the thunk.
+	 * @param addr Target address.
+	 * @return Number of bytes written, up to the end of the literal.
+	 */
+	public static int putThumbSafeStackThunk(ByteBuffer buf, int index, int pc, int addr) {
+		int literal = ((pc + 2 + 4) & ~3) + 8;
+		buf.putShort(index, (short) encodeThumbHiMov(11, 4));
+		buf.putShort(index + 2, (short) (0x4800 | (4 << 8) | (8 >> 2)));
+		buf.putShort(index + 4, (short) encodeThumbHiMov(12, 4));
+		buf.putShort(index + 6, (short) encodeThumbHiMov(4, 11));
+		buf.putShort(index + 8, (short) (0x4700 | (12 << 3)));
+		buf.putInt(index + (literal - pc), addr);
+		return literal - pc + 4;
+	}
+
+	/**
+	 * Stores a long-branch veneer, which jumps to the target address at its literal without changing any
+	 * register, so that it can be entered with a plain branch:
+	 *
+	 * PUSH {R0, R1}; LDR R0, [PC, #4]; STR R0, [SP, #4]; POP {R0, PC}
+	 *
+	 * The veneer must be word aligned.
+	 *
+	 * @param buf The buffer.
+	 * @param index Index of the veneer in the buffer.
+	 * @param addr Target address, with the Thumb bit set for Thumb targets.
+	 */
+	public static void putThumbVeneer(ByteBuffer buf, int index, int addr) {
+		buf.putShort(index, (short) 0xB403);
+		buf.putShort(index + 2, (short) 0x4801);
+		buf.putShort(index + 4, (short) 0x9001);
+		buf.putShort(index + 6, (short) 0xBD01);
+		buf.putInt(index + 8, addr);
+	}
+
+	/**
+	 * Stores a 31-bit self-relative offset, keeping the high bit of the original word.
+	 *
+	 * @param buf The buffer.
+	 * @param index Index of the word in the buffer.
+	 * @param pc Address of the word.
+	 * @param addr Target address.
+	 */
+	public static void putRel31(ByteBuffer buf, int index, int pc, int addr) {
+		buf.putInt(index, encodeRel31(pc, addr, buf.getInt(index)));
+	}
+
+	private static int encodeThumbHiMov(int dest, int src) {
+		return 0x4600 | ((dest & 8) << 4) | ((src & 8) << 3) | ((src & 7) << 3) | (dest & 7);
+	}
+}
@@ -1,35 +1,72 @@
 package rpm.format.rpm;
 
-import xstandard.io.base.iface.IOStream;
-import xstandard.io.base.impl.ext.data.DataIOStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Little-endian RPM reader operating directly on a (possibly memory-mapped) ByteBuffer.
+ *
+ * Positions are relative to the position of the source buffer at the time of construction, which is
+ * expected to be the start of the module.
+ */
+class RPMReader {
+
+	private final ByteBuffer buf;
+
+	private int checkpoint = -1;
+
+	private final Map<Integer, String> stringCache = new HashMap<>();
 
-class RPMReader extends DataIOStream {
-	
 	private int version;
-	
-	public RPMReader(IOStream strm){
-		super(strm);
+	private RPMDecoder decoder = RPMDecoder.forVersion(0);
+
+	public RPMReader(ByteBuffer source) {
+		buf = source.slice();
+		buf.order(ByteOrder.LITTLE_ENDIAN);
 	}
-	
+
 	public void setVersion(int version) {
 		this.version = version;
+		decoder = RPMDecoder.forVersion(version);
+	}
+
+	/**
+	 * Gets the entry decoder for the revision of the stream.
+	 *
+	 * @return The decoder.
+	 */
+	public RPMDecoder getDecoder() {
+		return decoder;
+	}
+
+	/**
+	 * Overrides the entry decoder selected for the revision of the stream.
+	 *
+	 * @param decoder The decoder.
+	 */
+	public void setDecoder(RPMDecoder decoder) {
+		this.decoder = decoder;
 	}
-	
+
 	public boolean aligned() {
 		return versionOver(RPMRevisions.REV_ALIGNED_FORMAT);
 	}
-	
+
 	public boolean versionOver(int rev) {
 		return version >= rev;
 	}
-	
+
 	private int headerOffsetBase = 0;
-	
+
 	public void setHeaderOffsetBase(int value) {
 		this.headerOffsetBase = value;
 	}
-	
+
 	public int readHeaderOffset() throws IOException {
 		int offs = readInt();
 		if (offs == -1) {
@@ -37,27 +74,228 @@ class RPMReader extends DataIOStream {
 		}
 		return offs + headerOffsetBase;
 	}
-	
+
 	private int strTableOffs = -1;
-	
+
 	public void setStrTableOffsHere() throws IOException {
 		strTableOffs = getPosition();
 	}
-	
-	@Override
-	public String readStringWithAddress() throws IOException {
-		if (strTableOffs == -1){
-			return super.readStringWithAddress();
-		}
-		int addr = readUnsignedShort();
-		if (addr == 0){
-			return null;
-		}
-		addr += strTableOffs;
-		int pos = getPositionUnbased();
-		seek(addr);
-		String str = readString();
-		seekUnbased(pos);
+
+	public void setStrTableOffs(int value) {
+		strTableOffs = value;
+	}
+
+	public int getLength() {
+		return buf.limit();
+	}
+
+	public int getPosition() {
+		return buf.position();
+	}
+
+	public void seek(int position) throws IOException {
+		if (position < 0 || position > buf.limit()) {
+			throw new EOFException("Seek out of bounds: 0x" + Integer.toHexString(position));
+		}
+		buf.position(position);
+	}
+
+	public void skipBytes(int count) throws IOException {
+		seek(buf.position() + count);
+	}
+
+	public void checkpoint() {
+		checkpoint = buf.position();
+	}
+
+	public void resetCheckpoint() throws IOException {
+		seek(checkpoint);
+	}
+
+	private void ensureRemaining(int count) throws IOException {
+		if (buf.remaining() < count) {
+			throw new EOFException();
+		}
+	}
+
+	public int read() throws IOException {
+		ensureRemaining(Byte.BYTES);
+		return buf.get() & 0xFF;
+	}
+
+	public int readUnsignedByte() throws IOException {
+		return read();
+	}
+
+	public void read(byte[] dest) throws IOException {
+		ensureRemaining(dest.length);
+		buf.get(dest);
+	}
+
+	public short readShort() throws IOException {
+		ensureRemaining(Short.BYTES);
+		return buf.getShort();
+	}
+
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xFFFF;
+	}
+
+	public int readInt() throws IOException {
+		ensureRemaining(Integer.BYTES);
+		return buf.getInt();
+	}
+
+	/**
+	 * Reads a magic signature and checks it against an expected value.
+	 *
+	 * @param magic The expected magic.
+	 * @return True if the magic matched.
+	 * @throws IOException
+	 */
+	public boolean checkMagic(String magic) throws IOException {
+		boolean match = true;
+		for (int i = 0; i < magic.length(); i++) {
+			if (read() != magic.charAt(i)) {
+				match = false;
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Reads a null-terminated string at the current position.
+	 *
+	 * @return The string.
+	 * @throws IOException
+	 */
+	public String readString() throws IOException {
+		int start = buf.position();
+		int end = findStringEnd(start);
+		String str = decodeString(start, end);
+		buf.position(end + 1);
+		return str;
+	}
+
+	/**
+	 * Reads a null-terminated string at an absolute position without moving the stream.
+	 *
+	 * Strings are cached by position, so a string referenced multiple times is decoded only once and the
+	 * same instance is returned for all references.
+	 *
+	 * @param position Position of the string.
+	 * @return The string.
+	 * @throws IOException
+	 */
+	public String readStringAt(int position) throws IOException {
+		String str = stringCache.get(position);
+		if (str == null) {
+			if (position < 0 || position > buf.limit()) {
+				throw new EOFException("String out of bounds: 0x" + Integer.toHexString(position));
+			}
+			str = decodeString(position, findStringEnd(position));
+			stringCache.put(position, str);
+		}
 		return str;
 	}
+
+	private int findStringEnd(int start) throws IOException {
+		int end = start;
+		int limit = buf.limit();
+		while (end < limit && buf.get(end) != 0) {
+			end++;
+		}
+		if (end == limit) {
+			throw new EOFException("Unterminated string at 0x" + Integer.toHexString(start));
+		}
+		return end;
+	}
+
+	private String decodeString(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buf.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads an integer at an absolute position without moving the stream.
+	 *
+	 * @param position Position of the value.
+	 * @return The value.
+	 */
+	public int getIntAt(int position) {
+		return buf.getInt(position);
+	}
+
+	/**
+	 * Reads an unsigned short at an absolute position without moving the stream.
+	 *
+	 * @param position Position of the value.
+	 * @return The value.
+	 */
+	public int getUnsignedShortAt(int position) {
+		return buf.getShort(position) & 0xFFFF;
+	}
+
+	/**
+	 * Reads an unsigned byte at an absolute position without moving the stream.
+	 *
+	 * @param position Position of the value.
+	 * @return The value.
+	 */
+	public int getUnsignedByteAt(int position) {
+		return buf.get(position) & 0xFF;
+	}
+
+	/**
+	 * Compares a string in the string table to a Java string without decoding it.
+	 *
+	 * @param strOffset Offset of the string relative to the string table.
+	 * @param str The string to compare with.
+	 * @return True if the strings are equal.
+	 */
+	public boolean stringEqualsAt(int strOffset, String str) {
+		if (strOffset == 0 || strTableOffs == -1) {
+			return str == null;
+		}
+		if (str == null) {
+			return false;
+		}
+		int pos = strTableOffs + strOffset;
+		int len = str.length();
+		for (int i = 0; i < len; i++, pos++) {
+			char c = str.charAt(i);
+			if (c >= 0x80) {
+				//multi-byte sequences are rare in symbol names, compare the decoded string
+				try {
+					return str.equals(readStringAt(strTableOffs + strOffset));
+				} catch (IOException ex) {
+					return false;
+				}
+			}
+			if (pos >= buf.limit() || buf.get(pos) != c) {
+				return false;
+			}
+		}
+		return pos < buf.limit() && buf.get(pos) == 0;
+	}
+
+	public String readStringWithAddress() throws IOException {
+		int addr;
+		if (strTableOffs == -1) {
+			addr = readInt();
+			if (addr == 0) {
+				return null;
+			}
+		} else {
+			addr = readUnsignedShort();
+			if (addr == 0) {
+				return null;
+			}
+			addr += strTableOffs;
+		}
+		return readStringAt(addr);
+	}
 }
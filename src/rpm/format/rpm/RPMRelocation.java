@@ -1,6 +1,5 @@
 package rpm.format.rpm;
 
-import xstandard.io.structs.StringTable;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -85,11 +84,11 @@ public class RPMRelocation {
 		}
 	}
 
-	void registStrings(StringTable strtbl) {
+	void registStrings(RPMStringTableBuilder strtbl) {
 		target.registStrings(strtbl);
 	}
 
-	void write(RPMWriter out, StringTable strtbl, List<String> outExternModuleTable) throws IOException {
+	void write(RPMWriter out, RPMStringTableBuilder strtbl, List<String> outExternModuleTable) throws IOException {
 		/*
 		Legacy structure
 		out.write(sourceType.ordinal());
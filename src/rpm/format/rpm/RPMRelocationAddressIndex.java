@@ -0,0 +1,80 @@
+package rpm.format.rpm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Index of an RPM's internal relocations by their target address relative to the code segment. Moving
+ * relocation targets in place requires an explicit invalidation.
+ */
+class RPMRelocationAddressIndex {
+
+	private final RPM rpm;
+
+	private List<RPMRelocation> indexedList;
+	private int indexedNonAppendModCount;
+	private int indexedCount;
+
+	private final NavigableMap<Integer, List<RPMRelocation>> relocations = new TreeMap<>();
+
+	public RPMRelocationAddressIndex(RPM rpm) {
+		this.rpm = rpm;
+	}
+
+	public synchronized void invalidate() {
+		indexedList = null;
+	}
+
+	/**
+	 * Gets all internal relocations with a target in a range of code segment offsets, ordered by target
+	 * address. Relocations with the same target are in relocation list order.
+	 *
+	 * @param start Start of the range, inclusive.
+	 * @param end End of the range, exclusive.
+	 * @return The relocations.
+	 */
+	public synchronized List<RPMRelocation> getInRange(int start, int end) {
+		List<RPMRelocation> result = new ArrayList<>();
+		if (end <= start) {
+			return result;
+		}
+		if (!update()) {
+			for (RPMRelocation rel : rpm.relocations) {
+				int addr = rel.target.getAddrHWordAligned();
+				if (rel.target.isInternal() && addr >= start && addr < end) {
+					result.add(rel);
+				}
+			}
+			result.sort((o1, o2) -> Integer.compare(o1.target.getAddrHWordAligned(), o2.target.getAddrHWordAligned()));
+			return result;
+		}
+		for (List<RPMRelocation> l : relocations.subMap(start, true, end, false).values()) {
+			result.addAll(l);
+		}
+		return result;
+	}
+
+	private boolean update() {
+		if (!(rpm.relocations instanceof TrackedList)) {
+			return false;
+		}
+		TrackedList<RPMRelocation> list = (TrackedList<RPMRelocation>) rpm.relocations;
+		if (list != indexedList || list.getNonAppendModCount() != indexedNonAppendModCount || list.size() < indexedCount) {
+			relocations.clear();
+			indexedList = list;
+			indexedNonAppendModCount = list.getNonAppendModCount();
+			indexedCount = 0;
+		}
+		int size = list.size();
+		for (int i = indexedCount; i < size; i++) {
+			RPMRelocation rel = list.get(i);
+			if (rel.target.isInternal()) {
+				relocations.computeIfAbsent(rel.target.getAddrHWordAligned(), k -> new ArrayList<>(1)).add(rel);
+			}
+		}
+		indexedCount = size;
+		return true;
+	}
+}
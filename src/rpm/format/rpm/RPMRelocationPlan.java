@@ -0,0 +1,519 @@
+package rpm.format.rpm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import xstandard.io.base.impl.ext.data.DataIOStream;
+
+/**
+ * Internal relocations of an RPM, compiled into primitive arrays for fast repeated rebasing.
+ *
+ * Each entry stores the code-relative offset of the patched field, the patch operation and the address
+ * of the source symbol, which is added to the code segment base for local symbols. Applying the plan
+ * to an image is a single loop over these arrays, with the patches encoded by RPMPatchEncoder. Only
+ * FULL_COPY and ARM branches to Thumb code are applied through the generic relocation writer on a copy
+ * of the patched window, and of the copied range for FULL_COPY.
+ */
+public class RPMRelocationPlan {
+
+	private static final byte OP_OFFSET = 0;
+	private static final byte OP_OFFSET_REL31 = 1;
+	private static final byte OP_ARM_BL = 2;
+	private static final byte OP_ARM_BLX = 3;
+	private static final byte OP_ARM_B = 4;
+	private static final byte OP_THUMB_BL = 5;
+	private static final byte OP_THUMB_BLX = 6;
+	private static final byte OP_THUMB_B = 7;
+	private static final byte OP_THUMB_SAFESTACK = 8;
+	private static final byte OP_GENERIC = 9;
+
+	/**
+	 * Size of the window that the generic relocation writer can patch, large enough for the longest
+	 * Thumb branch thunk including its literal.
+	 */
+	private static final int GENERIC_WINDOW_SIZE = 32;
+
+	/**
+	 * Minimum number of relocations applied by one parallel task.
+	 */
+	private static final int PARALLEL_CHUNK_SIZE = 4096;
+
+	private final RPM rpm;
+	private final int codeSize;
+
+	private final int count;
+	private final int[] offsets;
+	private final byte[] ops;
+	private final boolean[] local;
+	private final int[] addends;
+
+	private final RPMRelocation[] genericRelocations;
+	private final boolean hasFullCopy;
+
+	private int[] parallelEntries;
+	private int[] sequentialEntries;
+
+	/**
+	 * Compiles the internal relocations of an RPM.
+	 *
+	 * @param rpm The RPM.
+	 */
+	public RPMRelocationPlan(RPM rpm) {
+		this.rpm = rpm;
+		codeSize = rpm.getCodeStream().getRawLength();
+
+		int capacity = rpm.relocations.size();
+		int[] offsets = new int[capacity];
+		byte[] ops = new byte[capacity];
+		boolean[] local = new boolean[capacity];
+		int[] addends = new int[capacity];
+		List<RPMRelocation> generic = new ArrayList<>();
+
+		int n = 0;
+		for (RPMRelocation rel : rpm.relocations) {
+			if (!rel.target.isInternal() || rel.source.symb.isImportSymbol()) {
+				continue;
+			}
+			RPMSymbol symb = rel.source.symb;
+			int addend = rel.source.getWritableAddress(0);
+			byte op = getOp(rel.target.targetType, addend);
+			offsets[n] = rel.target.getAddrHWordAligned();
+			ops[n] = op;
+			local[n] = !symb.isAttribute(RPMSymbol.RPM_SYMATTR_GLOBAL);
+			if (op == OP_GENERIC) {
+				addends[n] = generic.size();
+				generic.add(rel);
+			} else {
+				addends[n] = addend;
+			}
+			n++;
+		}
+		count = n;
+		this.offsets = offsets;
+		this.ops = ops;
+		this.local = local;
+		this.addends = addends;
+		genericRelocations = generic.toArray(new RPMRelocation[generic.size()]);
+		boolean fullCopy = false;
+		for (RPMRelocation rel : genericRelocations) {
+			fullCopy |= rel.target.targetType == RPMRelTargetType.FULL_COPY;
+		}
+		hasFullCopy = fullCopy;
+	}
+
+	/**
+	 * Gets the patch operation of a relocation.
+	 *
+	 * @param targetType Type of the relocation target.
+	 * @param addend Writable address of the source symbol relative to the code segment base.
+	 * @return
+	 */
+	private static byte getOp(RPMRelTargetType targetType, int addend) {
+		boolean targetIsThumb = (addend & 1) != 0;
+		switch (targetType) {
+			case OFFSET:
+				return OP_OFFSET;
+			case OFFSET_REL31:
+				return OP_OFFSET_REL31;
+			case ARM_BRANCH_LINK:
+				return targetIsThumb ? OP_ARM_BLX : OP_ARM_BL;
+			case ARM_BRANCH:
+				return targetIsThumb ? OP_GENERIC : OP_ARM_B;
+			case THUMB_BRANCH_LINK:
+				return targetIsThumb ? OP_THUMB_BL : OP_THUMB_BLX;
+			case THUMB_BRANCH:
+				return OP_THUMB_B;
+			case THUMB_BRANCH_SAFESTACK:
+				return OP_THUMB_SAFESTACK;
+			default:
+				return OP_GENERIC;
+		}
+	}
+
+	/**
+	 * Checks whether the plan still matches the relocations and symbols of its RPM. Symbol addresses and
+	 * relocation targets are compiled into the plan, so changing them in place makes it stale. The check
+	 * walks the relocations once without allocating.
+	 *
+	 * @return True if applying the plan gives the same result as compiling it again.
+	 */
+	public boolean isCurrent() {
+		if (codeSize != rpm.getCodeStream().getRawLength()) {
+			return false;
+		}
+		int n = 0;
+		int g = 0;
+		boolean fullCopy = false;
+		for (RPMRelocation rel : rpm.relocations) {
+			if (!rel.target.isInternal() || rel.source.symb.isImportSymbol()) {
+				continue;
+			}
+			if (n == count) {
+				return false;
+			}
+			int addend = rel.source.getWritableAddress(0);
+			byte op = getOp(rel.target.targetType, addend);
+			if (ops[n] != op
+				|| offsets[n] != rel.target.getAddrHWordAligned()
+				|| local[n] == rel.source.symb.isAttribute(RPMSymbol.RPM_SYMATTR_GLOBAL)) {
+				return false;
+			}
+			if (op == OP_GENERIC) {
+				if (addends[n] != g || genericRelocations[g] != rel) {
+					return false;
+				}
+				fullCopy |= rel.target.targetType == RPMRelTargetType.FULL_COPY;
+				g++;
+			} else if (addends[n] != addend) {
+				return false;
+			}
+			n++;
+		}
+		return n == count && fullCopy == hasFullCopy;
+	}
+
+	/**
+	 * Gets the number of compiled relocations.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Relocates a code image in a byte array.
+	 *
+	 * @param image The array containing the code segment.
+	 * @param codeOffset Offset of the code segment in the array.
+	 * @param baseAddress Base address of the module to relocate to.
+	 */
+	public void apply(byte[] image, int codeOffset, int baseAddress) {
+		apply(ByteBuffer.wrap(image), codeOffset, baseAddress);
+	}
+
+	/**
+	 * Relocates a code image in a buffer. Only absolute accesses are used, the position of the buffer is
+	 * not changed.
+	 *
+	 * @param buf The buffer containing the code segment.
+	 * @param codeOffset Offset of the code segment in the buffer.
+	 * @param baseAddress Base address of the module to relocate to.
+	 */
+	public void apply(ByteBuffer buf, int codeOffset, int baseAddress) {
+		ByteBuffer image = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int codeSegmentBase = baseAddress + RPM.RPM_PROLOG_SIZE;
+		for (int i = 0; i < count; i++) {
+			applyEntry(image, codeOffset, codeSegmentBase, i);
+		}
+	}
+
+	/**
+	 * Relocates a code image in a byte array, applying the relocations concurrently.
+	 *
+	 * @param image The array containing the code segment.
+	 * @param codeOffset Offset of the code segment in the array.
+	 * @param baseAddress Base address of the module to relocate to.
+	 */
+	public void applyParallel(byte[] image, int codeOffset, int baseAddress) {
+		applyParallel(ByteBuffer.wrap(image), codeOffset, baseAddress);
+	}
+
+	/**
+	 * Relocates a code image in a buffer, applying the relocations concurrently on the common fork-join
+	 * pool.
+	 *
+	 * Relocations whose patched fields do not overlap any other relocation are split by target address
+	 * into chunks that are applied in parallel. All other relocations are applied afterwards, in their
+	 * original order. The result is identical to that of apply. Plans with FULL_COPY relocations, which
+	 * read from the whole code segment, are applied sequentially.
+	 *
+	 * @param buf The buffer containing the code segment.
+	 * @param codeOffset Offset of the code segment in the buffer.
+	 * @param baseAddress Base address of the module to relocate to.
+	 */
+	public void applyParallel(ByteBuffer buf, int codeOffset, int baseAddress) {
+		if (hasFullCopy) {
+			apply(buf, codeOffset, baseAddress);
+			return;
+		}
+		partition();
+		if (parallelEntries.length < PARALLEL_CHUNK_SIZE * 2) {
+			apply(buf, codeOffset, baseAddress);
+			return;
+		}
+		ByteBuffer image = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int codeSegmentBase = baseAddress + RPM.RPM_PROLOG_SIZE;
+		ForkJoinPool.commonPool().invoke(new ApplyTask(image, codeOffset, codeSegmentBase, 0, parallelEntries.length));
+		for (int i : sequentialEntries) {
+			applyEntry(image, codeOffset, codeSegmentBase, i);
+		}
+	}
+
+	/**
+	 * Checks if the plan can move an already relocated image with rebase. Images of modules with
+	 * FULL_COPY relocations contain copies of relocated data that can only be produced from the
+	 * unrelocated code.
+	 *
+	 * @return
+	 */
+	public boolean isRebaseable() {
+		return !hasFullCopy;
+	}
+
+	/**
+	 * Moves a code image that was relocated to one base address to another one, in place.
+	 *
+	 * Absolute offsets to local symbols are moved by the delta of the base addresses, while those to
+	 * global symbols stay. Self-relative fields are encoded again only if they point to a global symbol,
+	 * since both ends of a branch within the module move together. Exceptions are Thumb BLX, which
+	 * depends on the word alignment of the instruction, and the Thumb branches that store the absolute
+	 * target address in a literal, which are always encoded again.
+	 *
+	 * @param buf The buffer containing the code segment.
+	 * @param codeOffset Offset of the code segment in the buffer.
+	 * @param fromBase The base address that the image is relocated to.
+	 * @param toBase The base address to relocate the image to.
+	 */
+	public void rebase(ByteBuffer buf, int codeOffset, int fromBase, int toBase) {
+		if (hasFullCopy) {
+			throw new UnsupportedOperationException("Images with FULL_COPY relocations can not be rebased.");
+		}
+		int delta = toBase - fromBase;
+		if (delta == 0) {
+			return;
+		}
+		boolean alignmentChanged = (delta & 3) != 0;
+		ByteBuffer image = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int codeSegmentBase = toBase + RPM.RPM_PROLOG_SIZE;
+		for (int i = 0; i < count; i++) {
+			switch (ops[i]) {
+				case OP_OFFSET:
+					if (local[i]) {
+						int pos = codeOffset + offsets[i];
+						image.putInt(pos, image.getInt(pos) + delta);
+					}
+					break;
+				case OP_OFFSET_REL31:
+				case OP_ARM_BL:
+				case OP_ARM_BLX:
+				case OP_ARM_B:
+				case OP_THUMB_BL:
+					if (!local[i]) {
+						applyEntry(image, codeOffset, codeSegmentBase, i);
+					}
+					break;
+				case OP_THUMB_BLX:
+					if (!local[i] || alignmentChanged) {
+						applyEntry(image, codeOffset, codeSegmentBase, i);
+					}
+					break;
+				default:
+					applyEntry(image, codeOffset, codeSegmentBase, i);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Splits the relocations into those that can be applied in any order and those that overlap others.
+	 *
+	 * Relocations are swept in target address order and grouped into clusters of transitively overlapping
+	 * patches. Single-relocation clusters go to the parallel set, the rest to the sequential one.
+	 */
+	private synchronized void partition() {
+		if (parallelEntries != null) {
+			return;
+		}
+		Integer[] sorted = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, (o1, o2) -> Integer.compare(offsets[o1], offsets[o2]));
+
+		boolean[] sequential = new boolean[count];
+		int clusterStart = 0;
+		int clusterEnd = Integer.MIN_VALUE;
+		for (int j = 0; j <= count; j++) {
+			if (j == count || offsets[sorted[j]] >= clusterEnd) {
+				if (j - clusterStart > 1) {
+					for (int k = clusterStart; k < j; k++) {
+						sequential[sorted[k]] = true;
+					}
+				}
+				clusterStart = j;
+				clusterEnd = Integer.MIN_VALUE;
+			}
+			if (j < count) {
+				int i = sorted[j];
+				sequential[i] |= ops[i] == OP_GENERIC;
+				clusterEnd = Math.max(clusterEnd, offsets[i] + getPatchSize(ops[i]));
+			}
+		}
+
+		int[] par = new int[count];
+		int[] seq = new int[count];
+		int parCount = 0;
+		int seqCount = 0;
+		for (int j = 0; j < count; j++) {
+			if (!sequential[sorted[j]]) {
+				par[parCount++] = sorted[j];
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			if (sequential[i]) {
+				seq[seqCount++] = i;
+			}
+		}
+		sequentialEntries = Arrays.copyOf(seq, seqCount);
+		parallelEntries = Arrays.copyOf(par, parCount);
+	}
+
+	/**
+	 * Gets the maximum number of bytes that an operation patches.
+	 */
+	private static int getPatchSize(byte op) {
+		switch (op) {
+			case OP_THUMB_B:
+				return RPMPatchEncoder.THUMB_LONG_BRANCH_SIZE;
+			case OP_THUMB_SAFESTACK:
+				return RPMPatchEncoder.THUMB_SAFESTACK_MAX_SIZE;
+			case OP_GENERIC:
+				return GENERIC_WINDOW_SIZE;
+			default:
+				return 4;
+		}
+	}
+
+	private void applyEntry(ByteBuffer image, int codeOffset, int codeSegmentBase, int i) {
+		int pos = codeOffset + offsets[i];
+		int pc = codeSegmentBase + offsets[i];
+		int addr = local[i] ? codeSegmentBase + addends[i] : addends[i];
+		switch (ops[i]) {
+			case OP_OFFSET:
+				image.putInt(pos, addr);
+				break;
+			case OP_OFFSET_REL31:
+				RPMPatchEncoder.putRel31(image, pos, pc, addr);
+				break;
+			case OP_ARM_BL:
+				RPMPatchEncoder.putARMBranch(image, pos, pc, addr, true);
+				break;
+			case OP_ARM_BLX:
+				RPMPatchEncoder.putARMBranchLinkExchange(image, pos, pc, addr);
+				break;
+			case OP_ARM_B:
+				RPMPatchEncoder.putARMBranch(image, pos, pc, addr, false);
+				break;
+			case OP_THUMB_BL:
+				RPMPatchEncoder.putThumbBranchLink(image, pos, pc, addr, false);
+				break;
+			case OP_THUMB_BLX:
+				RPMPatchEncoder.putThumbBranchLink(image, pos, pc, addr, true);
+				break;
+			case OP_THUMB_B:
+				RPMPatchEncoder.putThumbBranch(image, pos, pc, addr);
+				break;
+			case OP_THUMB_SAFESTACK:
+				RPMPatchEncoder.putThumbSafeStackThunk(image, pos, pc, addr);
+				break;
+			case OP_GENERIC:
+				applyGeneric(image, codeOffset, codeSegmentBase, i);
+				break;
+		}
+	}
+
+	private void applyGeneric(ByteBuffer image, int codeOffset, int codeSegmentBase, int index) {
+		RPMRelocation rel = genericRelocations[addends[index]];
+		int limit = Math.min(codeSize, image.limit() - codeOffset);
+		int start = offsets[index];
+		int end = start + GENERIC_WINDOW_SIZE;
+		boolean fullCopy = rel.target.targetType == RPMRelTargetType.FULL_COPY;
+		if (fullCopy) {
+			//the mirrored relocations are patched within the copy, but may reach past its end
+			end += rel.source.getLength();
+		}
+		end = Math.min(end, limit);
+		if (end <= start) {
+			return;
+		}
+
+		try {
+			DataIOStream io = new DataIOStream(getWindow(image, codeOffset, start, end, limit));
+			io.setBase(codeSegmentBase + start);
+			DataIOStream copySource = io;
+			int copySourceCodeOffset = -start;
+			if (fullCopy && rel.source.getLength() > 0) {
+				//the source is read before anything is written, so a separate window of it sees the same data
+				int copyStart = rel.source.getAddress();
+				copySource = new DataIOStream(getWindow(image, codeOffset, copyStart, copyStart + rel.source.getLength(), limit));
+				copySourceCodeOffset = -copyStart;
+			}
+			RPM.writeRelocationData(rpm, rel, io, codeSegmentBase, copySource, copySourceCodeOffset);
+			byte[] result = io.toByteArray();
+
+			ByteBuffer dest = image.duplicate();
+			dest.position(codeOffset + start);
+			dest.put(result, 0, Math.min(result.length, end - start));
+		} catch (IOException ex) {
+			Logger.getLogger(RPMRelocationPlan.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Copies a range of the code segment out of an image. Bytes outside of the code segment read as zero.
+	 */
+	private static byte[] getWindow(ByteBuffer image, int codeOffset, int start, int end, int limit) {
+		byte[] window = new byte[end - start];
+		int from = Math.max(start, 0);
+		int to = Math.min(end, limit);
+		if (to > from) {
+			ByteBuffer src = image.duplicate();
+			src.position(codeOffset + from);
+			src.get(window, from - start, to - from);
+		}
+		return window;
+	}
+
+	/**
+	 * Applies a range of the parallel entries, splitting it until it is small enough.
+	 */
+	private class ApplyTask extends RecursiveAction {
+
+		private final ByteBuffer image;
+		private final int codeOffset;
+		private final int codeSegmentBase;
+		private final int from;
+		private final int to;
+
+		public ApplyTask(ByteBuffer image, int codeOffset, int codeSegmentBase, int from, int to) {
+			this.image = image;
+			this.codeOffset = codeOffset;
+			this.codeSegmentBase = codeSegmentBase;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_CHUNK_SIZE) {
+				for (int j = from; j < to; j++) {
+					applyEntry(image, codeOffset, codeSegmentBase, parallelEntries[j]);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(
+					new ApplyTask(image, codeOffset, codeSegmentBase, from, mid),
+					new ApplyTask(image, codeOffset, codeSegmentBase, mid, to)
+				);
+			}
+		}
+	}
+}
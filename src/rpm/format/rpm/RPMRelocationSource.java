@@ -42,10 +42,19 @@ public class RPMRelocationSource {
 		return symb.getAddrAbs();
 	}
 
-	public void write(DataOutput out, StringTable strtab) throws IOException {
+	public void write(DataOutput out, RPMStringTableBuilder strtab) throws IOException {
 		out.writeShort(rpm.getSymbolNo(symb));
 	}
 
+	/**
+	 * @deprecated String tables are built with RPMStringTableBuilder. The string table is not used by
+	 * the relocation format.
+	 */
+	@Deprecated
+	public void write(DataOutput out, StringTable strtab) throws IOException {
+		write(out, (RPMStringTableBuilder) null);
+	}
+
 	public int getAddress() {
 		return symb.isImportSymbol() ? -1 : symb.address;
 	}
@@ -61,6 +70,30 @@ public class RPMRelocationSource {
 		return a;
 	}
 
+	/**
+	 * Gets the address to write into a relocated field, as if the module's code segment was at a given
+	 * address.
+	 *
+	 * @param codeSegmentBase Address of the code segment.
+	 * @return The address, or -1 for import symbols.
+	 */
+	public int getWritableAddress(int codeSegmentBase) {
+		if (symb == null) {
+			throw new NullPointerException("Null symbol!");
+		}
+		if (symb.isImportSymbol()) {
+			return -1;
+		}
+		int a = symb.address;
+		if (!symb.isAttribute(RPMSymbol.RPM_SYMATTR_GLOBAL)) {
+			a += codeSegmentBase;
+		}
+		if (symb.type == RPMSymbolType.FUNCTION_THM) {
+			a++;
+		}
+		return a;
+	}
+
 	public int getLength() {
 		return symb.size;
 	}
@@ -55,6 +55,10 @@ public class RPMRelocationTarget {
 		targetType = tgt.targetType;
 	}
 
+	/**
+	 * @deprecated String tables are built with RPMStringTableBuilder.
+	 */
+	@Deprecated
 	public void addStrings(List<String> l) {
 		if (!isInternal()) {
 			ArraysEx.addIfNotNullOrContains(l, module);
@@ -82,13 +86,13 @@ public class RPMRelocationTarget {
 		return !isInternal();
 	}
 
-	void registStrings(StringTable strtbl) {
+	void registStrings(RPMStringTableBuilder strtbl) {
 		if (isExternal()) {
-			strtbl.putString(module);
+			strtbl.add(module);
 		}
 	}
 
-	public void write(DataIOStream out, StringTable strtbl, List<String> outExternModuleTable) throws IOException {
+	public void write(DataIOStream out, RPMStringTableBuilder strtbl, List<String> outExternModuleTable) throws IOException {
 		/*if (isInternal()) {
 			out.writeInt(address);
 			out.writeInt(0);
@@ -109,6 +113,15 @@ public class RPMRelocationTarget {
 		out.write(externIdx);
 		out.write(targetType.ordinal());
 	}
+
+	/**
+	 * @deprecated String tables are built with RPMStringTableBuilder. The string table is not used by
+	 * the relocation format.
+	 */
+	@Deprecated
+	public void write(DataIOStream out, StringTable strtbl, List<String> outExternModuleTable) throws IOException {
+		write(out, (RPMStringTableBuilder) null, outExternModuleTable);
+	}
 	
 	@Override
 	public String toString() {
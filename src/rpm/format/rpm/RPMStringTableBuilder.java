@@ -0,0 +1,163 @@
+package rpm.format.rpm;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builder of the STR section of an RPM.
+ *
+ * Strings are deduplicated by hash, and strings that are a suffix of another string share its bytes, so
+ * that "init" is stored as the tail of "foo_init". Offset 0 is reserved for null, the table therefore
+ * starts with an empty string.
+ */
+public class RPMStringTableBuilder {
+
+	private final Map<String, Integer> offsets = new HashMap<>();
+	private byte[] table;
+
+	/**
+	 * Adds a string to the table. Null strings and duplicates are ignored.
+	 *
+	 * @param str The string.
+	 */
+	public void add(String str) {
+		if (table != null) {
+			throw new IllegalStateException("The string table has already been built.");
+		}
+		if (str != null) {
+			offsets.putIfAbsent(str, -1);
+		}
+	}
+
+	/**
+	 * Lays out the table. No strings can be added afterwards.
+	 *
+	 * Strings are ordered by their reversed characters, which places every string right after the longest
+	 * string that it is a suffix of, so a single comparison with the previous string finds the tail to
+	 * share.
+	 */
+	public void build() {
+		if (table != null) {
+			return;
+		}
+		List<String> sorted = new ArrayList<>(offsets.keySet());
+		sorted.sort(RPMStringTableBuilder::compareReversed);
+
+		List<byte[]> emitted = new ArrayList<>();
+		int size = 1; //null string
+		String prev = null;
+		int prevOffset = 0;
+		int prevLength = 0;
+		for (String str : sorted) {
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			int offset;
+			if (prev != null && prev.endsWith(str)) {
+				offset = prevOffset + prevLength - bytes.length;
+			} else {
+				offset = size;
+				emitted.add(bytes);
+				size += bytes.length + 1;
+			}
+			offsets.put(str, offset);
+			prev = str;
+			prevOffset = offset;
+			prevLength = bytes.length;
+		}
+
+		table = new byte[size];
+		int pos = 1;
+		for (byte[] bytes : emitted) {
+			System.arraycopy(bytes, 0, table, pos, bytes.length);
+			pos += bytes.length + 1;
+		}
+	}
+
+	/**
+	 * Orders strings descending by their reversed characters, so that strings come before their suffixes.
+	 */
+	private static int compareReversed(String a, String b) {
+		int i = a.length() - 1;
+		int j = b.length() - 1;
+		for (; i >= 0 && j >= 0; i--, j--) {
+			int diff = b.charAt(j) - a.charAt(i);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return (j + 1) - (i + 1);
+	}
+
+	/**
+	 * Checks if a string has been added to the table.
+	 *
+	 * @param str The string.
+	 * @return True if the string is in the table or null.
+	 */
+	public boolean contains(String str) {
+		return str == null || offsets.containsKey(str);
+	}
+
+	/**
+	 * Gets the number of distinct strings in the table.
+	 *
+	 * @return
+	 */
+	public int getStringCount() {
+		return offsets.size();
+	}
+
+	/**
+	 * Gets the size of the table in bytes, excluding the section magic.
+	 *
+	 * @return
+	 */
+	public int getSize() {
+		build();
+		return table.length;
+	}
+
+	/**
+	 * Gets the offset of a string in the table.
+	 *
+	 * @param str The string.
+	 * @return Offset of the string, 0 for null.
+	 */
+	public int getOffset(String str) {
+		if (str == null) {
+			return 0;
+		}
+		build();
+		Integer offset = offsets.get(str);
+		if (offset == null) {
+			throw new IllegalArgumentException("String " + str + " is not in the string table.");
+		}
+		return offset;
+	}
+
+	/**
+	 * Writes the 16-bit offset of a string.
+	 *
+	 * @param out The stream to write into.
+	 * @param str The string.
+	 * @throws IOException
+	 */
+	public void writeOffset(DataOutput out, String str) throws IOException {
+		out.writeShort(getOffset(str));
+	}
+
+	/**
+	 * Writes the table contents.
+	 *
+	 * @param out The stream to write into.
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		build();
+		out.write(table);
+	}
+}
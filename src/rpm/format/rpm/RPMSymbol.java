@@ -70,7 +70,7 @@ public class RPMSymbol {
 			if (in.versionOver(RPMRevisions.REV_GLOBAL_IN_SYMATTR)) {
 				address = in.readInt();
 			} else {
-				addrCompat = new RPMSymbolAddressCompat(rpm, in);
+				addrCompat = new RPMSymbolAddressCompat(rpm, in.readInt());
 			}
 			type = RPMSymbolType.values()[in.read()];
 			attributes = in.read();
@@ -87,7 +87,7 @@ public class RPMSymbol {
 			int typeCfg = in.readUnsignedByte();
 			type = RPMSymbolType.values()[typeCfg & 0b111];
 			attributes = typeCfg >> 3;
-			addrCompat = new RPMSymbolAddressCompat(rpm, in);
+			addrCompat = new RPMSymbolAddressCompat(rpm, in.readInt());
 			if (in.versionOver(RPMRevisions.REV_SYMBOL_LENGTH)) {
 				if (in.versionOver(RPMRevisions.REV_SMALL_SYMBOLS)) {
 					size = in.readUnsignedShort();
@@ -184,12 +184,29 @@ public class RPMSymbol {
 		return 2 + 2 + 4 + 1 + 1 + 2;
 	}
 
+	/**
+	 * @deprecated String tables are built with RPMStringTableBuilder.
+	 */
+	@Deprecated
 	public void addStrings(List<String> l) {
 		ArraysEx.addIfNotNullOrContains(l, name);
 	}
 
+	public void write(DataOutputEx out, RPMStringTableBuilder strtab) throws IOException {
+		strtab.writeOffset(out, name);
+		writeFields(out);
+	}
+
+	/**
+	 * @deprecated String tables are built with RPMStringTableBuilder.
+	 */
+	@Deprecated
 	public void write(DataOutputEx out, StringTable strtab) throws IOException {
 		strtab.putStringOffset(name);
+		writeFields(out);
+	}
+
+	private void writeFields(DataOutputEx out) throws IOException {
 		out.writeShort(size);
 		out.writeInt(address);
 		out.write(type.ordinal());
@@ -14,6 +14,11 @@ public class RPMSymbolAddressCompat {
 		this.rpm = rpm;
 		bits = in.readInt();
 	}
+
+	RPMSymbolAddressCompat(RPM rpm, int bits) {
+		this.rpm = rpm;
+		this.bits = bits;
+	}
 	
 	public void write(DataOutput out) throws IOException {
 		out.writeInt(bits);
@@ -0,0 +1,221 @@
+package rpm.format.rpm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Address-ordered index of an RPM's symbols.
+ *
+ * Global symbols are keyed by their absolute address and local symbols by their address relative to the
+ * code segment, so that the index stays valid when the module is rebased. Symbol addresses changed in
+ * place require an explicit invalidation.
+ */
+class RPMSymbolAddressIndex {
+
+	private final RPM rpm;
+
+	private List<RPMSymbol> indexedList;
+	private int indexedNonAppendModCount;
+	private int indexedCount;
+	private int maxSize;
+
+	private final NavigableMap<Integer, List<RPMSymbol>> globals = new TreeMap<>();
+	private final NavigableMap<Integer, List<RPMSymbol>> locals = new TreeMap<>();
+
+	public RPMSymbolAddressIndex(RPM rpm) {
+		this.rpm = rpm;
+	}
+
+	public synchronized void invalidate() {
+		indexedList = null;
+	}
+
+	/**
+	 * Gets all non-import symbols at an absolute address, in symbol list order.
+	 *
+	 * @param addr The absolute address.
+	 * @return The symbols, empty if none.
+	 */
+	public synchronized List<RPMSymbol> getAt(int addr) {
+		if (!update()) {
+			List<RPMSymbol> result = new ArrayList<>();
+			for (RPMSymbol s : rpm.symbols) {
+				if (!s.isImportSymbol() && s.getAddrAbs() == addr) {
+					result.add(s);
+				}
+			}
+			return result;
+		}
+		List<RPMSymbol> g = globals.get(addr);
+		List<RPMSymbol> l = locals.get(addr - rpm.getCodeSegmentBase());
+		if (g == null && l == null) {
+			return Collections.emptyList();
+		}
+		List<RPMSymbol> result = new ArrayList<>();
+		if (g != null) {
+			result.addAll(g);
+		}
+		if (l != null) {
+			result.addAll(l);
+		}
+		if (g != null && l != null) {
+			result.sort((o1, o2) -> rpm.getSymbolNo(o1) - rpm.getSymbolNo(o2));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the first global symbol at an absolute address.
+	 *
+	 * @param addr The absolute address.
+	 * @return The symbol, or null if none.
+	 */
+	public synchronized RPMSymbol getGlobalAt(int addr) {
+		if (!update()) {
+			for (RPMSymbol s : rpm.symbols) {
+				if (s.isGlobal() && s.getAddrAbs() == addr) {
+					return s;
+				}
+			}
+			return null;
+		}
+		List<RPMSymbol> l = globals.get(addr);
+		return l == null ? null : l.get(0);
+	}
+
+	/**
+	 * Finds the symbol that contains an absolute address. Of all symbols that cover the address with their
+	 * size, the one with the highest start wins, and the first one in the symbol list among those with the
+	 * same start. Zero-sized symbols only contain their own address.
+	 *
+	 * @param addr The absolute address.
+	 * @return The symbol, or null if neither covers the address.
+	 */
+	public synchronized RPMSymbol getContaining(int addr) {
+		if (!update()) {
+			RPMSymbol best = null;
+			for (RPMSymbol s : rpm.symbols) {
+				if (!s.isImportSymbol()) {
+					int start = s.getAddrAbs();
+					if (start <= addr && (best == null || start > best.getAddrAbs()) && contains(s, start, addr)) {
+						best = s;
+					}
+				}
+			}
+			return best;
+		}
+		int codeSegmentBase = rpm.getCodeSegmentBase();
+		RPMSymbol g = findContaining(globals, 0, addr);
+		RPMSymbol l = findContaining(locals, codeSegmentBase, addr);
+		if (g == null || l == null) {
+			return g != null ? g : l;
+		}
+		int gStart = g.address;
+		int lStart = l.address + codeSegmentBase;
+		if (gStart != lStart) {
+			return gStart > lStart ? g : l;
+		}
+		return rpm.getSymbolNo(g) < rpm.getSymbolNo(l) ? g : l;
+	}
+
+	/**
+	 * Gets all non-import symbols in a range of absolute addresses, ordered by address.
+	 *
+	 * @param start Start of the range, inclusive.
+	 * @param end End of the range, exclusive.
+	 * @return The symbols.
+	 */
+	public synchronized List<RPMSymbol> getInRange(int start, int end) {
+		List<RPMSymbol> result = new ArrayList<>();
+		if (end <= start) {
+			return result;
+		}
+		if (!update()) {
+			for (RPMSymbol s : rpm.symbols) {
+				if (!s.isImportSymbol()) {
+					int a = s.getAddrAbs();
+					if (a >= start && a < end) {
+						result.add(s);
+					}
+				}
+			}
+			result.sort((o1, o2) -> Integer.compare(o1.getAddrAbs(), o2.getAddrAbs()));
+			return result;
+		}
+		int codeSegmentBase = rpm.getCodeSegmentBase();
+		addAll(result, globals.subMap(start, true, end, false).values());
+		addAll(result, locals.subMap(start - codeSegmentBase, true, end - codeSegmentBase, false).values());
+		result.sort((o1, o2) -> Integer.compare(o1.getAddrAbs(), o2.getAddrAbs()));
+		return result;
+	}
+
+	private static void addAll(List<RPMSymbol> dest, Collection<List<RPMSymbol>> lists) {
+		for (List<RPMSymbol> l : lists) {
+			dest.addAll(l);
+		}
+	}
+
+	/**
+	 * Finds the symbol with the highest start that contains an absolute address in one of the maps. Symbols
+	 * starting further below the address than the largest symbol size can not contain it, so the walk stops
+	 * there.
+	 */
+	private RPMSymbol findContaining(NavigableMap<Integer, List<RPMSymbol>> map, int keyBase, int addr) {
+		for (Map.Entry<Integer, List<RPMSymbol>> e : map.headMap(addr - keyBase, true).descendingMap().entrySet()) {
+			int start = e.getKey() + keyBase;
+			if ((long) addr - start > maxSize) {
+				break;
+			}
+			RPMSymbol s = findContaining(e.getValue(), start, addr);
+			if (s != null) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	private static RPMSymbol findContaining(List<RPMSymbol> candidates, int start, int addr) {
+		for (RPMSymbol s : candidates) {
+			if (contains(s, start, addr)) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	private static boolean contains(RPMSymbol s, int start, int addr) {
+		return addr == start || (addr - start) < s.size;
+	}
+
+	private boolean update() {
+		if (!(rpm.symbols instanceof TrackedList)) {
+			return false;
+		}
+		TrackedList<RPMSymbol> list = (TrackedList<RPMSymbol>) rpm.symbols;
+		if (list != indexedList || list.getNonAppendModCount() != indexedNonAppendModCount || list.size() < indexedCount) {
+			globals.clear();
+			locals.clear();
+			indexedList = list;
+			indexedNonAppendModCount = list.getNonAppendModCount();
+			indexedCount = 0;
+			maxSize = 0;
+		}
+		int size = list.size();
+		for (int i = indexedCount; i < size; i++) {
+			RPMSymbol s = list.get(i);
+			if (s.isImportSymbol()) {
+				continue;
+			}
+			NavigableMap<Integer, List<RPMSymbol>> map = s.isAttribute(RPMSymbol.RPM_SYMATTR_GLOBAL) ? globals : locals;
+			map.computeIfAbsent(s.address, k -> new ArrayList<>(1)).add(s);
+			maxSize = Math.max(maxSize, s.size);
+		}
+		indexedCount = size;
+		return true;
+	}
+}
@@ -0,0 +1,92 @@
+package rpm.format.rpm;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Name and identity index of an RPM's symbol list, kept up to date as described in TrackedList.
+ * Renaming symbols in place requires an explicit invalidation.
+ */
+class RPMSymbolIndex {
+
+	private final RPM rpm;
+
+	private List<RPMSymbol> indexedList;
+	private int indexedNonAppendModCount;
+	private int indexedCount;
+
+	private final Map<String, RPMSymbol> byName = new HashMap<>();
+	private final Map<RPMSymbol, Integer> byIdentity = new IdentityHashMap<>();
+
+	public RPMSymbolIndex(RPM rpm) {
+		this.rpm = rpm;
+	}
+
+	/**
+	 * Discards the index, causing it to be rebuilt on the next lookup.
+	 */
+	public synchronized void invalidate() {
+		indexedList = null;
+	}
+
+	/**
+	 * Finds the first symbol with a name.
+	 *
+	 * @param name The name, may be null.
+	 * @return The symbol, or null if none has the name.
+	 */
+	public synchronized RPMSymbol getByName(String name) {
+		if (!update()) {
+			for (RPMSymbol s : rpm.symbols) {
+				if (name == null ? s.name == null : name.equals(s.name)) {
+					return s;
+				}
+			}
+			return null;
+		}
+		return byName.get(name);
+	}
+
+	/**
+	 * Gets the index of a symbol in the symbol list.
+	 *
+	 * @param symb The symbol.
+	 * @return Index of the symbol, or -1 if it is not in the list.
+	 */
+	public synchronized int indexOf(RPMSymbol symb) {
+		if (!update()) {
+			return rpm.symbols.indexOf(symb);
+		}
+		Integer index = byIdentity.get(symb);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Brings the index up to date with the symbol list.
+	 *
+	 * @return False if the symbol list can not be tracked and has to be searched linearly.
+	 */
+	synchronized boolean update() {
+		if (!(rpm.symbols instanceof TrackedList)) {
+			return false;
+		}
+		TrackedList<RPMSymbol> list = (TrackedList<RPMSymbol>) rpm.symbols;
+		if (list != indexedList || list.getNonAppendModCount() != indexedNonAppendModCount || list.size() < indexedCount) {
+			byName.clear();
+			byIdentity.clear();
+			indexedList = list;
+			indexedNonAppendModCount = list.getNonAppendModCount();
+			indexedCount = 0;
+		}
+		int size = list.size();
+		for (int i = indexedCount; i < size; i++) {
+			RPMSymbol s = list.get(i);
+			byName.putIfAbsent(s.name, s);
+			byIdentity.putIfAbsent(s, i);
+		}
+		indexedCount = size;
+		return true;
+	}
+}
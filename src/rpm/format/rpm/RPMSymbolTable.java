@@ -0,0 +1,354 @@
+package rpm.format.rpm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import xstandard.io.InvalidMagicException;
+
+/**
+ * Compact symbol table storing symbol fields in primitive arrays.
+ *
+ * Symbol names are stored once, UTF-8 encoded, in a shared byte pool. A table takes a fraction of the heap
+ * of the equivalent list of RPMSymbol objects, and can be viewed as such a list with asList.
+ */
+public class RPMSymbolTable {
+
+	private static final RPMSymbolType[] SYMBOL_TYPES = RPMSymbolType.values();
+
+	private int count;
+
+	private int[] addresses;
+	private int[] nameHashes;
+	private int[] nameOffsets;
+	private short[] sizes;
+	private byte[] types;
+	private byte[] attributes;
+
+	private byte[] namePool;
+	private int namePoolSize;
+	private Map<String, Integer> namePoolIndex = new HashMap<>();
+
+	public RPMSymbolTable() {
+		this(16);
+	}
+
+	public RPMSymbolTable(int capacity) {
+		capacity = Math.max(capacity, 1);
+		addresses = new int[capacity];
+		nameHashes = new int[capacity];
+		nameOffsets = new int[capacity];
+		sizes = new short[capacity];
+		types = new byte[capacity];
+		attributes = new byte[capacity];
+		namePool = new byte[capacity * 8];
+	}
+
+	/**
+	 * Creates a compact copy of a list of symbols.
+	 *
+	 * @param symbols The symbols.
+	 */
+	public RPMSymbolTable(List<RPMSymbol> symbols) {
+		this(symbols.size());
+		for (RPMSymbol s : symbols) {
+			add(s);
+		}
+		trimToSize();
+	}
+
+	/**
+	 * Reads the SYM section of a module into a compact table.
+	 *
+	 * @param in An RPMReader set up for the module.
+	 * @param header Header of the module.
+	 * @return The table.
+	 * @throws IOException
+	 */
+	static RPMSymbolTable read(RPMReader in, RPMHeader header) throws IOException {
+		if (header.symbolsOffset < 0) {
+			return new RPMSymbolTable(1);
+		}
+		in.seek(header.symbolsOffset);
+		if (!in.checkMagic(RPM.SYM_MAGIC)) {
+			throw new InvalidMagicException("SYM section not present!");
+		}
+		if (in.versionOver(RPMRevisions.REV_EXTERN_LISTS)) {
+			in.readHeaderOffset(); //extern module list
+		}
+		int firstExportSymbolIdx = -1;
+		int exportSymbolCount = 0;
+		int exportSymbolHashTableOffset = -1;
+		if (in.versionOver(RPMRevisions.REV_IMPORT_EXPORT_SYMBOL_HASHTABLES)) {
+			firstExportSymbolIdx = in.readUnsignedShort();
+			exportSymbolCount = in.readUnsignedShort();
+			in.readUnsignedShort(); //first import symbol
+			in.readUnsignedShort(); //import symbol count
+			exportSymbolHashTableOffset = in.readHeaderOffset();
+		}
+		int symbolCount = in.aligned() ? in.readInt() : in.readUnsignedShort();
+
+		RPMSymbolTable table = new RPMSymbolTable(symbolCount);
+		if (in.versionOver(RPMRevisions.REV_GLOBAL_IN_SYMATTR)) {
+			for (int i = 0; i < symbolCount; i++) {
+				String name = in.readStringWithAddress();
+				int size = in.readUnsignedShort();
+				int address = in.readInt();
+				RPMSymbolType type = SYMBOL_TYPES[in.read()];
+				int attr = in.read();
+				in.readShort(); //reserved
+				table.add(name, type, address, size, attr, 0);
+			}
+		} else {
+			RPMDecoder decoder = in.getDecoder();
+			for (int i = 0; i < symbolCount; i++) {
+				table.add(decoder.readSymbol(null, in));
+			}
+		}
+
+		if (exportSymbolHashTableOffset != -1 && firstExportSymbolIdx != 0xFFFF) {
+			in.seek(exportSymbolHashTableOffset);
+			for (int i = 0; i < exportSymbolCount; i++) {
+				table.nameHashes[firstExportSymbolIdx + i] = in.readInt();
+			}
+		}
+		table.trimToSize();
+		return table;
+	}
+
+	/**
+	 * Adds a symbol to the table.
+	 *
+	 * @param sym The symbol.
+	 * @return Index of the added symbol.
+	 */
+	public int add(RPMSymbol sym) {
+		return add(sym.name, sym.type, sym.address, sym.size, sym.attributes, sym.nameHash);
+	}
+
+	/**
+	 * Adds a symbol to the table.
+	 *
+	 * @param name Name of the symbol, may be null.
+	 * @param type Type of the symbol.
+	 * @param address Address of the symbol, or the name hash of an import symbol.
+	 * @param size Size of the symbol.
+	 * @param attr Symbol attribute flags.
+	 * @param nameHash Export name hash of the symbol.
+	 * @return Index of the added symbol.
+	 */
+	public int add(String name, RPMSymbolType type, int address, int size, int attr, int nameHash) {
+		ensureCapacity(count + 1);
+		addresses[count] = address;
+		nameHashes[count] = nameHash;
+		nameOffsets[count] = putName(name);
+		sizes[count] = (short) size;
+		types[count] = (byte) (type == null ? -1 : type.ordinal());
+		attributes[count] = (byte) attr;
+		return count++;
+	}
+
+	private int putName(String name) {
+		if (name == null) {
+			return -1;
+		}
+		Integer existing = namePoolIndex.get(name);
+		if (existing != null) {
+			return existing;
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (namePoolSize + bytes.length + 1 > namePool.length) {
+			namePool = Arrays.copyOf(namePool, Math.max(namePool.length * 2, namePoolSize + bytes.length + 1));
+		}
+		int offset = namePoolSize;
+		System.arraycopy(bytes, 0, namePool, offset, bytes.length);
+		namePool[offset + bytes.length] = 0;
+		namePoolSize += bytes.length + 1;
+		namePoolIndex.put(name, offset);
+		return offset;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > addresses.length) {
+			int newCapacity = Math.max(capacity, addresses.length * 2 + 8);
+			addresses = Arrays.copyOf(addresses, newCapacity);
+			nameHashes = Arrays.copyOf(nameHashes, newCapacity);
+			nameOffsets = Arrays.copyOf(nameOffsets, newCapacity);
+			sizes = Arrays.copyOf(sizes, newCapacity);
+			types = Arrays.copyOf(types, newCapacity);
+			attributes = Arrays.copyOf(attributes, newCapacity);
+		}
+	}
+
+	/**
+	 * Shrinks the arrays to the symbol count and releases the name deduplication map.
+	 *
+	 * Names added afterwards are no longer deduplicated against the existing ones.
+	 */
+	public void trimToSize() {
+		addresses = Arrays.copyOf(addresses, count);
+		nameHashes = Arrays.copyOf(nameHashes, count);
+		nameOffsets = Arrays.copyOf(nameOffsets, count);
+		sizes = Arrays.copyOf(sizes, count);
+		types = Arrays.copyOf(types, count);
+		attributes = Arrays.copyOf(attributes, count);
+		namePool = Arrays.copyOf(namePool, namePoolSize);
+		namePoolIndex = new HashMap<>();
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public String getName(int index) {
+		int offs = nameOffsets[checkIndex(index)];
+		if (offs == -1) {
+			return null;
+		}
+		int end = offs;
+		while (namePool[end] != 0) {
+			end++;
+		}
+		return new String(namePool, offs, end - offs, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks whether a symbol's name equals a string, without decoding the name.
+	 *
+	 * @param index Index of the symbol.
+	 * @param name The string to compare with.
+	 * @return True if the names are equal.
+	 */
+	public boolean nameEquals(int index, String name) {
+		int offs = nameOffsets[checkIndex(index)];
+		if (offs == -1 || name == null) {
+			return offs == -1 && name == null;
+		}
+		int len = name.length();
+		for (int i = 0; i < len; i++, offs++) {
+			char c = name.charAt(i);
+			if (c >= 0x80) {
+				return name.equals(getName(index));
+			}
+			if (namePool[offs] != c) {
+				return false;
+			}
+		}
+		return namePool[offs] == 0;
+	}
+
+	public RPMSymbolType getType(int index) {
+		int t = types[checkIndex(index)];
+		return t == -1 ? null : SYMBOL_TYPES[t];
+	}
+
+	public int getAddress(int index) {
+		return addresses[checkIndex(index)];
+	}
+
+	public int getSize(int index) {
+		return sizes[checkIndex(index)] & 0xFFFF;
+	}
+
+	public int getAttributes(int index) {
+		return attributes[checkIndex(index)] & 0xFF;
+	}
+
+	public int getNameHash(int index) {
+		return nameHashes[checkIndex(index)];
+	}
+
+	public boolean isAttribute(int index, int attr) {
+		return (getAttributes(index) & attr) != 0;
+	}
+
+	/**
+	 * Gets the absolute address of a symbol.
+	 *
+	 * @param index Index of the symbol.
+	 * @param codeSegmentBase Base address of the module's code segment.
+	 * @return The absolute address.
+	 */
+	public int getAddrAbs(int index, int codeSegmentBase) {
+		if (isAttribute(index, RPMSymbol.RPM_SYMATTR_GLOBAL)) {
+			return addresses[index];
+		}
+		return codeSegmentBase + addresses[index];
+	}
+
+	/**
+	 * Finds a symbol by name.
+	 *
+	 * @param name Name of the symbol.
+	 * @return Index of the first symbol with the name, or -1 if not found.
+	 */
+	public int indexOf(String name) {
+		for (int i = 0; i < count; i++) {
+			if (nameEquals(i, name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates a standalone RPMSymbol object of a symbol in the table.
+	 *
+	 * @param rpm The RPM to bind the symbol to.
+	 * @param index Index of the symbol.
+	 * @return A new symbol object.
+	 */
+	public RPMSymbol toSymbol(RPM rpm, int index) {
+		RPMSymbol s = new RPMSymbol(rpm);
+		s.name = getName(index);
+		s.type = getType(index);
+		s.address = addresses[index];
+		s.size = getSize(index);
+		s.attributes = getAttributes(index);
+		s.nameHash = nameHashes[index];
+		return s;
+	}
+
+	/**
+	 * Gets a read-only list view of the table, for code that iterates a list of symbols.
+	 *
+	 * The elements are created on access and are not backed by the table, changes made to them are not
+	 * written back.
+	 *
+	 * @param rpm The RPM to bind the symbols to.
+	 * @return A read-only list view.
+	 */
+	public List<RPMSymbol> asList(RPM rpm) {
+		return new SymbolListView(rpm);
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Symbol index " + index + " out of range.");
+		}
+		return index;
+	}
+
+	private class SymbolListView extends AbstractList<RPMSymbol> implements RandomAccess {
+
+		private final RPM rpm;
+
+		public SymbolListView(RPM rpm) {
+			this.rpm = rpm;
+		}
+
+		@Override
+		public RPMSymbol get(int index) {
+			return toSymbol(rpm, checkIndex(index));
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package rpm.format.rpm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import xstandard.io.base.impl.ext.data.DataIOStream;
+import xstandard.math.MathEx;
+
+/**
+ * Allocator of shared long-branch veneers for THUMB_BRANCH relocations.
+ *
+ * A Thumb branch whose target is out of range of the short branch is otherwise written as an inline
+ * PUSH/BL/POP sequence with a literal at every site. The allocator instead places one veneer per target
+ * address in a pool at the end of the code segment and redirects the sites to it, so that every site
+ * stays a single short branch. The literal of a veneer is an ordinary OFFSET relocation, so images stay
+ * loadable without any change to the format.
+ *
+ * Only internal sites within short branch range of the pool can be redirected. The others, as well as all
+ * external hooks, keep the inline sequence.
+ */
+class RPMThumbVeneerPool {
+
+	private final RPM rpm;
+	private final int poolStart;
+
+	private final Map<Integer, RPMSymbol> globalVeneers = new HashMap<>();
+	private final Map<Integer, RPMSymbol> localVeneers = new HashMap<>();
+	private final List<RPMSymbol> veneers = new ArrayList<>();
+	private final List<RPMSymbol> veneerTargets = new ArrayList<>();
+	private final List<RPMRelocation> sites = new ArrayList<>();
+	private final List<RPMSymbol> siteVeneers = new ArrayList<>();
+
+	private RPMThumbVeneerPool(RPM rpm) {
+		this.rpm = rpm;
+		poolStart = MathEx.padInteger(rpm.getCodeStream().getRawLength(), 4);
+	}
+
+	/**
+	 * Redirects the far THUMB_BRANCH relocations of a module through a veneer pool.
+	 *
+	 * @param rpm The module.
+	 * @return Number of relocations redirected.
+	 */
+	public static int allocate(RPM rpm) {
+		RPMThumbVeneerPool pool = new RPMThumbVeneerPool(rpm);
+		for (RPMRelocation rel : rpm.relocations) {
+			if (rel.target.targetType == RPMRelTargetType.THUMB_BRANCH && pool.isFar(rel)) {
+				pool.addSite(rel);
+			}
+		}
+		if (!pool.sites.isEmpty()) {
+			pool.commit();
+		}
+		return pool.sites.size();
+	}
+
+	private boolean isFar(RPMRelocation rel) {
+		if (!rel.target.isInternal() || rel.source.symb.isImportSymbol()) {
+			return false;
+		}
+		if (rel.source.symb.isAttribute(RPMSymbol.RPM_SYMATTR_GLOBAL)) {
+			//the distance depends on the base address
+			return true;
+		}
+		return !RPMPatchEncoder.isThumbShortBranchInRange(rel.target.getAddrHWordAligned(), rel.source.getWritableAddress(0));
+	}
+
+	private void addSite(RPMRelocation rel) {
+		RPMSymbol target = rel.source.symb;
+		Map<Integer, RPMSymbol> map = target.isAttribute(RPMSymbol.RPM_SYMATTR_GLOBAL) ? globalVeneers : localVeneers;
+		int key = rel.source.getWritableAddress(0);
+
+		RPMSymbol veneer = map.get(key);
+		int veneerAddr = veneer != null ? veneer.address : poolStart + veneers.size() * RPMPatchEncoder.THUMB_VENEER_SIZE;
+		if (!RPMPatchEncoder.isThumbShortBranchInRange(rel.target.getAddrHWordAligned(), veneerAddr)) {
+			return;
+		}
+		if (veneer == null) {
+			veneer = new RPMSymbol(rpm, "__thumb_veneer_" + veneers.size(), RPMSymbolType.FUNCTION_THM, veneerAddr, false);
+			map.put(key, veneer);
+			veneers.add(veneer);
+			veneerTargets.add(target);
+		}
+		sites.add(rel);
+		siteVeneers.add(veneer);
+	}
+
+	private void commit() {
+		int codeSize = rpm.getCodeStream().getRawLength();
+		int poolSize = veneers.size() * RPMPatchEncoder.THUMB_VENEER_SIZE;
+
+		//The BSS follows the code, move its symbols past the pool
+		for (RPMSymbol sym : rpm.symbols) {
+			if (sym.isLocal() && sym.address >= codeSize) {
+				sym.address += poolSize;
+			}
+		}
+
+		//The code image is already relocated to the current base, so the pool and the redirected sites are
+		//encoded for it right away. Stripping may then drop the site relocations like any other branch
+		//within the module, while the literals stay relocated through their OFFSET relocations.
+		int codeSegmentBase = rpm.getCodeSegmentBase();
+		ByteBuffer buf = ByteBuffer.allocate(poolSize).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < veneers.size(); i++) {
+			int addr = new RPMRelocationSource(rpm, veneerTargets.get(i)).getWritableAddress(codeSegmentBase);
+			RPMPatchEncoder.putThumbVeneer(buf, i * RPMPatchEncoder.THUMB_VENEER_SIZE, addr);
+		}
+		try {
+			DataIOStream code = rpm.getCodeStream();
+			code.seekUnbased(poolStart);
+			code.write(buf.array());
+			for (int i = 0; i < sites.size(); i++) {
+				int site = sites.get(i).target.getAddrHWordAligned();
+				int veneerAddr = codeSegmentBase + siteVeneers.get(i).address;
+				code.seekUnbased(site);
+				code.writeShort(RPMPatchEncoder.encodeThumbShortBranch(codeSegmentBase + site, veneerAddr));
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(RPMThumbVeneerPool.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		for (int i = 0; i < veneers.size(); i++) {
+			RPMSymbol veneer = veneers.get(i);
+			rpm.symbols.add(veneer);
+
+			RPMRelocation literal = new RPMRelocation();
+			literal.target = new RPMRelocationTarget(veneer.address + 8, RPMRelTargetType.OFFSET);
+			literal.source = new RPMRelocationSource(rpm, veneerTargets.get(i));
+			rpm.relocations.add(literal);
+		}
+		for (int i = 0; i < sites.size(); i++) {
+			sites.get(i).source = new RPMRelocationSource(rpm, siteVeneers.get(i));
+		}
+	}
+}
@@ -13,6 +13,10 @@ class RPMWriter extends DataIOStream {
 		super();
 	}
 	
+	public RPMWriter(int capacity) {
+		super(new byte[capacity]);
+	}
+	
 	public void setHeaderStartHere() throws IOException {
 		this.headerStartOffset = getPosition();
 	}
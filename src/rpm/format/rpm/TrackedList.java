@@ -0,0 +1,57 @@
+package rpm.format.rpm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * ArrayList that tells appends apart from other modifications, so that indices over it can be updated
+ * incrementally while elements are only being added to its end.
+ *
+ * The indices over the lists of an RPM bring themselves up to date on every lookup: appended elements are
+ * indexed incrementally, any other modification of the list causes a rebuild. Fields of the elements that
+ * are changed in place are not seen by the list, so the index over them has to be invalidated explicitly.
+ * Since a lookup may modify the index, the lookups of every index are synchronized on it.
+ *
+ * @param <E> Element type.
+ */
+class TrackedList<E> extends ArrayList<E> {
+
+	private int appendModCount = 0;
+	private int setCount = 0;
+
+	public TrackedList() {
+		super();
+	}
+
+	@Override
+	public boolean add(E e) {
+		int before = modCount;
+		boolean result = super.add(e);
+		appendModCount += modCount - before;
+		return result;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		int before = modCount;
+		boolean result = super.addAll(c);
+		appendModCount += modCount - before;
+		return result;
+	}
+
+	@Override
+	public E set(int index, E element) {
+		setCount++;
+		return super.set(index, element);
+	}
+
+	/**
+	 * Gets a counter of all modifications other than appends, including element replacements and
+	 * reordering. Indices over the list have to be rebuilt if this counter changes.
+	 *
+	 * @return The modification counter.
+	 */
+	public int getNonAppendModCount() {
+		return modCount - appendModCount + setCount;
+	}
+}
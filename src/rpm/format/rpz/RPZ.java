@@ -1,6 +1,7 @@
 package rpm.format.rpz;
 
 import rpm.format.rpm.RPM;
+import rpm.format.rpm.RPMHandle;
 import rpm.format.rpm.RPMMetaData;
 import xstandard.formats.zip.ZipArchive;
 import xstandard.fs.FSFile;
@@ -98,7 +99,22 @@ public class RPZ extends FSFileAdapter {
 	 * @return
 	 */
 	public static String getProductIDOfRPM(RPM rpm) {
-		RPMMetaData.RPMMetaValue prodId = rpm.metaData.findValue(RPM_MVK_RPZ_PRODUCT_ID);
+		return getProductIDOfRPM(rpm.metaData);
+	}
+
+	/**
+	 * Gets the Product ID of an RPM installed from an RPZ without decoding
+	 * anything but the RPM's metadata.
+	 *
+	 * @param rpm Handle of the RPM to return the Product ID of.
+	 * @return
+	 */
+	public static String getProductIDOfRPM(RPMHandle rpm) {
+		return getProductIDOfRPM(rpm.getMetaData());
+	}
+
+	private static String getProductIDOfRPM(RPMMetaData metaData) {
+		RPMMetaData.RPMMetaValue prodId = metaData.findValue(RPM_MVK_RPZ_PRODUCT_ID);
 		if (prodId != null) {
 			return prodId.stringValue();
 		}
@@ -114,7 +130,22 @@ public class RPZ extends FSFileAdapter {
 	 * @return Product Version of the RPM, or -1 if none detected.
 	 */
 	public static int getProductVersionOfRPM(RPM rpm) {
-		RPMMetaData.RPMMetaValue prodVer = rpm.metaData.findValue(RPM_MVK_RPZ_PRODUCT_VERSION);
+		return getProductVersionOfRPM(rpm.metaData);
+	}
+
+	/**
+	 * Gets the Product Version of an RPM installed from an RPZ without
+	 * decoding anything but the RPM's metadata.
+	 *
+	 * @param rpm Handle of the RPM to return the Product Version of.
+	 * @return Product Version of the RPM, or -1 if none detected.
+	 */
+	public static int getProductVersionOfRPM(RPMHandle rpm) {
+		return getProductVersionOfRPM(rpm.getMetaData());
+	}
+
+	private static int getProductVersionOfRPM(RPMMetaData metaData) {
+		RPMMetaData.RPMMetaValue prodVer = metaData.findValue(RPM_MVK_RPZ_PRODUCT_VERSION);
 		if (prodVer != null) {
 			return prodVer.intValue();
 		}
@@ -1,10 +1,12 @@
 package rpm.format.rpz;
 
 import rpm.format.rpm.RPM;
+import rpm.format.rpm.RPMChainScanner;
+import rpm.format.rpm.RPMHandle;
 import xstandard.fs.FSFile;
 import xstandard.fs.accessors.DiskFile;
 import xstandard.io.base.impl.ext.data.DataIOStream;
-import xstandard.io.util.IOUtils;
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -46,27 +48,15 @@ public class RPZDemo {
 
 		final Map<String, Integer> installedPatches = new HashMap<>();
 
+		//The mapped image is only read here, before installRPM appends to the file
 		try {
-			DataIOStream io = code.getDataIOStream();
-
-			while (io.getPosition() < io.getLength()) {
-				int start = io.getPosition();
-				IOUtils.SearchResult rsl = IOUtils.searchForBytes(io, io.getPosition(), io.getLength(), new IOUtils.SearchPattern(new byte[]{(byte) 'R', (byte) 'P', (byte) 'M'}));
-				if (rsl != null) {
-					int end = io.getPosition() + RPM.RPM_FOOTER_SIZE;
-					byte[] rpmBytes = new byte[end - start];
-					io.seek(start);
-					io.read(rpmBytes);
-					io.seek(end);
-					RPM rpm = new RPM(rpmBytes);
-					String prodId = RPZ.getProductIDOfRPM(rpm);
-					int prodVer = RPZ.getProductVersionOfRPM(rpm);
-					if (prodId != null && prodVer != -1) {
-						installedPatches.put(prodId, prodVer);
-					}
+			for (RPMHandle rpm : RPMChainScanner.scan(new File(code.getPath()))) {
+				String prodId = RPZ.getProductIDOfRPM(rpm);
+				int prodVer = RPZ.getProductVersionOfRPM(rpm);
+				if (prodId != null && prodVer != -1) {
+					installedPatches.put(prodId, prodVer);
 				}
 			}
-			io.close();
 		} catch (IOException ex) {
 			Logger.getLogger(RPZDemo.class.getName()).log(Level.SEVERE, null, ex);
 		}
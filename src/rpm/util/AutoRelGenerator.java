@@ -3,6 +3,7 @@ package rpm.util;
 import rpm.elfconv.ESDBSegmentInfo;
 import rpm.elfconv.ExternalSymbolDB;
 import rpm.format.rpm.RPM;
+import rpm.format.rpm.RPMLog;
 import rpm.format.rpm.RPMRelTargetType;
 import rpm.format.rpm.RPMRelocation;
 import rpm.format.rpm.RPMRelocationSource;
@@ -79,15 +80,15 @@ public class AutoRelGenerator {
 							rel.source = new RPMRelocationSource(rpm, smb);
 							rel.target = new RPMRelocationTarget(hookedAddr, segmentName, tt);
 							rpm.relocations.add(rel);
-							System.out.println("Created automated hook of type " + rel.target.targetType + " at " + smb.name + " to " + segmentName + ":" + Integer.toHexString(hookedAddr));
+							RPMLog.info(() -> "Created automated hook of type " + rel.target.targetType + " at " + smb.name + " to " + rel.target.module + ":" + Integer.toHexString(rel.target.address));
 						} else {
-							System.out.println("Warning: Could not create automated hook at " + smb.name);
+							RPMLog.warn(() -> "Warning: Could not create automated hook at " + smb.name);
 							if (hookedAddr == -1) {
 								if (segmentName == null) {
-									System.out.println("Reason: Could not resolve segment.");
+									RPMLog.warn(() -> "Reason: Could not resolve segment.");
 								}
 							} else {
-								System.out.println("Reason: External relocation at this address already exists.");
+								RPMLog.warn(() -> "Reason: External relocation at this address already exists.");
 							}
 						}
 						break;
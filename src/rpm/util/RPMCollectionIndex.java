@@ -0,0 +1,316 @@
+package rpm.util;
+
+import rpm.format.rpm.RPM;
+import rpm.format.rpm.RPMMetaData;
+import rpm.format.rpm.RPMRelocation;
+import rpm.format.rpm.RPMSymbol;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import xstandard.io.InvalidMagicException;
+
+/**
+ * Combined index of the export symbols, imports, external relocations and metadata of a set of RPMs.
+ *
+ * The index can be saved to a binary file and loaded back without parsing the modules again.
+ */
+public class RPMCollectionIndex {
+
+	public static final String INDEX_MAGIC = "RPMX";
+	public static final int INDEX_VERSION = 1;
+
+	public final List<ModuleEntry> modules = new ArrayList<>();
+
+	/**
+	 * Finds all modules exporting a symbol.
+	 *
+	 * @param name Name of the symbol.
+	 * @return Modules whose export symbol hash table contains the symbol.
+	 */
+	public List<ModuleEntry> findExporters(String name) {
+		int hash = RPMSymbol.getNameHash(name);
+		List<ModuleEntry> result = new ArrayList<>();
+		for (ModuleEntry m : modules) {
+			for (ExportEntry e : m.exports) {
+				if (e.nameHash == hash && (e.name == null || e.name.equals(name))) {
+					result.add(m);
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates an index entry of a module.
+	 *
+	 * @param path Path of the module file.
+	 * @param rpm The module.
+	 * @return The entry.
+	 */
+	public static ModuleEntry createEntry(String path, RPM rpm) {
+		ModuleEntry m = new ModuleEntry();
+		m.path = path;
+		for (RPMSymbol s : rpm.symbols) {
+			if (s.isExportSymbol()) {
+				ExportEntry e = new ExportEntry();
+				e.name = s.name;
+				e.nameHash = s.nameHash != 0 ? s.nameHash : RPMSymbol.getNameHash(s.name);
+				e.address = s.address;
+				e.attributes = s.attributes;
+				e.type = s.type.ordinal();
+				e.size = s.size;
+				m.exports.add(e);
+			} else if (s.isImportSymbol()) {
+				//the address of an import symbol is the hash of its name
+				m.importHashes.add(s.address);
+			}
+		}
+		for (RPMRelocation rel : rpm.relocations) {
+			if (!rel.target.isInternal()) {
+				ExternRelEntry e = new ExternRelEntry();
+				e.module = rel.target.module;
+				e.address = rel.target.address;
+				e.targetType = rel.target.targetType == null ? -1 : rel.target.targetType.ordinal();
+				m.externRelocations.add(e);
+			}
+		}
+		for (RPMMetaData.RPMMetaValue v : rpm.metaData) {
+			MetaEntry e = new MetaEntry();
+			e.name = v.name;
+			e.type = v.type.ordinal();
+			if (v.type == RPMMetaData.RPMMetaValueType.INT) {
+				e.intValue = v.intValue();
+			} else {
+				e.stringValue = v.stringValue();
+			}
+			m.metaData.add(e);
+		}
+		return m;
+	}
+
+	/**
+	 * Writes the index to a file.
+	 *
+	 * @param file The file to write into.
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			write(out);
+		}
+	}
+
+	/**
+	 * Writes the index to a data stream.
+	 *
+	 * All strings are pooled, so that module names and symbol names shared by multiple modules are only
+	 * stored once.
+	 *
+	 * @param out The stream to write into.
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		StringPool pool = new StringPool();
+		for (ModuleEntry m : modules) {
+			pool.put(m.path);
+			for (ExportEntry e : m.exports) {
+				pool.put(e.name);
+			}
+			for (ExternRelEntry e : m.externRelocations) {
+				pool.put(e.module);
+			}
+			for (MetaEntry e : m.metaData) {
+				pool.put(e.name);
+				pool.put(e.stringValue);
+			}
+		}
+
+		out.writeBytes(INDEX_MAGIC);
+		out.writeInt(INDEX_VERSION);
+		out.writeInt(pool.strings.size());
+		for (String s : pool.strings) {
+			out.writeUTF(s);
+		}
+		out.writeInt(modules.size());
+		for (ModuleEntry m : modules) {
+			out.writeInt(pool.get(m.path));
+			out.writeInt(m.exports.size());
+			for (ExportEntry e : m.exports) {
+				out.writeInt(pool.get(e.name));
+				out.writeInt(e.nameHash);
+				out.writeInt(e.address);
+				out.writeShort(e.size);
+				out.writeByte(e.type);
+				out.writeByte(e.attributes);
+			}
+			out.writeInt(m.importHashes.size());
+			for (int hash : m.importHashes) {
+				out.writeInt(hash);
+			}
+			out.writeInt(m.externRelocations.size());
+			for (ExternRelEntry e : m.externRelocations) {
+				out.writeInt(pool.get(e.module));
+				out.writeInt(e.address);
+				out.writeByte(e.targetType);
+			}
+			out.writeInt(m.metaData.size());
+			for (MetaEntry e : m.metaData) {
+				out.writeInt(pool.get(e.name));
+				out.writeByte(e.type);
+				if (e.type == RPMMetaData.RPMMetaValueType.INT.ordinal()) {
+					out.writeInt(e.intValue);
+				} else {
+					out.writeInt(pool.get(e.stringValue));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads an index from a file.
+	 *
+	 * @param file The file to read from.
+	 * @return The index.
+	 * @throws IOException
+	 */
+	public static RPMCollectionIndex read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Reads an index from a data stream.
+	 *
+	 * @param in The stream to read from.
+	 * @return The index.
+	 * @throws IOException
+	 */
+	public static RPMCollectionIndex read(DataInputStream in) throws IOException {
+		byte[] magic = new byte[INDEX_MAGIC.length()];
+		in.readFully(magic);
+		if (!INDEX_MAGIC.equals(new String(magic, "ASCII"))) {
+			throw new InvalidMagicException("Not an RPM collection index!");
+		}
+		int version = in.readInt();
+		if (version != INDEX_VERSION) {
+			throw new IOException("Unsupported RPM collection index version " + version);
+		}
+		String[] strings = new String[in.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = in.readUTF();
+		}
+
+		RPMCollectionIndex index = new RPMCollectionIndex();
+		int moduleCount = in.readInt();
+		for (int i = 0; i < moduleCount; i++) {
+			ModuleEntry m = new ModuleEntry();
+			m.path = getPooled(strings, in.readInt());
+			int count = in.readInt();
+			for (int j = 0; j < count; j++) {
+				ExportEntry e = new ExportEntry();
+				e.name = getPooled(strings, in.readInt());
+				e.nameHash = in.readInt();
+				e.address = in.readInt();
+				e.size = in.readUnsignedShort();
+				e.type = in.readUnsignedByte();
+				e.attributes = in.readUnsignedByte();
+				m.exports.add(e);
+			}
+			count = in.readInt();
+			for (int j = 0; j < count; j++) {
+				m.importHashes.add(in.readInt());
+			}
+			count = in.readInt();
+			for (int j = 0; j < count; j++) {
+				ExternRelEntry e = new ExternRelEntry();
+				e.module = getPooled(strings, in.readInt());
+				e.address = in.readInt();
+				e.targetType = in.readByte();
+				m.externRelocations.add(e);
+			}
+			count = in.readInt();
+			for (int j = 0; j < count; j++) {
+				MetaEntry e = new MetaEntry();
+				e.name = getPooled(strings, in.readInt());
+				e.type = in.readUnsignedByte();
+				if (e.type == RPMMetaData.RPMMetaValueType.INT.ordinal()) {
+					e.intValue = in.readInt();
+				} else {
+					e.stringValue = getPooled(strings, in.readInt());
+				}
+				m.metaData.add(e);
+			}
+			index.modules.add(m);
+		}
+		return index;
+	}
+
+	private static String getPooled(String[] strings, int index) {
+		return index == -1 ? null : strings[index];
+	}
+
+	private static class StringPool {
+
+		private final List<String> strings = new ArrayList<>();
+		private final Map<String, Integer> indices = new HashMap<>();
+
+		public void put(String str) {
+			if (str != null && !indices.containsKey(str)) {
+				indices.put(str, strings.size());
+				strings.add(str);
+			}
+		}
+
+		public int get(String str) {
+			if (str == null) {
+				return -1;
+			}
+			return indices.get(str);
+		}
+	}
+
+	public static class ModuleEntry {
+
+		public String path;
+		public final List<ExportEntry> exports = new ArrayList<>();
+		public final List<Integer> importHashes = new ArrayList<>();
+		public final List<ExternRelEntry> externRelocations = new ArrayList<>();
+		public final List<MetaEntry> metaData = new ArrayList<>();
+	}
+
+	public static class ExportEntry {
+
+		public String name;
+		public int nameHash;
+		public int address;
+		public int size;
+		public int type;
+		public int attributes;
+	}
+
+	public static class ExternRelEntry {
+
+		public String module;
+		public int address;
+		public int targetType;
+	}
+
+	public static class MetaEntry {
+
+		public String name;
+		public int type;
+		public int intValue;
+		public String stringValue;
+	}
+}
@@ -0,0 +1,89 @@
+package rpm.util;
+
+import rpm.format.rpm.RPM;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import xstandard.fs.FSFile;
+
+/**
+ * Builds an RPMCollectionIndex of all RPMs in a directory tree.
+ *
+ * Modules are parsed concurrently on a fixed-size thread pool. The order of the modules in the index
+ * follows the directory walk, regardless of the order in which they finish parsing.
+ */
+public class RPMCollectionIndexer {
+
+	/**
+	 * Indexes all RPMs in a directory tree using one thread per available processor.
+	 *
+	 * @param root The root directory.
+	 * @param fourCC Four character magic to recognize RPMs with, or null for the default.
+	 * @return The index.
+	 */
+	public static RPMCollectionIndex index(FSFile root, String fourCC) {
+		return index(root, fourCC, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Indexes all RPMs in a directory tree.
+	 *
+	 * @param root The root directory.
+	 * @param fourCC Four character magic to recognize RPMs with, or null for the default.
+	 * @param threadCount Maximum number of modules parsed at once.
+	 * @return The index.
+	 */
+	public static RPMCollectionIndex index(FSFile root, String fourCC, int threadCount) {
+		String magic = fourCC == null ? RPM.RPM_PROLOG_MAGIC : fourCC;
+
+		List<FSFile> files = new ArrayList<>();
+		collectFiles(root, files);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+		try {
+			List<Future<RPMCollectionIndex.ModuleEntry>> futures = new ArrayList<>(files.size());
+			for (FSFile f : files) {
+				futures.add(executor.submit(() -> {
+					if (!RPM.isRPM(f, magic)) {
+						return null;
+					}
+					return RPMCollectionIndex.createEntry(f.getPath(), new RPM(f, magic));
+				}));
+			}
+
+			RPMCollectionIndex index = new RPMCollectionIndex();
+			for (Future<RPMCollectionIndex.ModuleEntry> future : futures) {
+				try {
+					RPMCollectionIndex.ModuleEntry entry = future.get();
+					if (entry != null) {
+						index.modules.add(entry);
+					}
+				} catch (ExecutionException ex) {
+					Logger.getLogger(RPMCollectionIndexer.class.getName()).log(Level.SEVERE, null, ex.getCause());
+				}
+			}
+			return index;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			Logger.getLogger(RPMCollectionIndexer.class.getName()).log(Level.SEVERE, null, ex);
+			return new RPMCollectionIndex();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void collectFiles(FSFile dir, List<FSFile> dest) {
+		if (dir.isDirectory()) {
+			for (FSFile child : dir.listFiles()) {
+				collectFiles(child, dest);
+			}
+		} else if (dir.isFile()) {
+			dest.add(dir);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package rpm.util;
+
+import rpm.elfconv.ExternalSymbolDB;
+import rpm.format.rpm.RPM;
+import rpm.format.rpm.RPMExternalRelocationBatch;
+import rpm.format.rpm.RPMLog;
+import rpm.format.rpm.RPMRelocation;
+import rpm.format.rpm.RPMRelocationSource;
+import rpm.format.rpm.RPMSymbol;
+import rpm.format.rpm.RPMSymbolType;
+import xstandard.io.base.impl.ext.data.DataIOStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Offline linker that applies the external relocations of an RPM directly into flat images of the target
+ * segments.
+ *
+ * Relocations are written with the same semantics as RPM.writeRelocationDataByType, for the current base
+ * address of the RPM. Import symbols used as relocation sources are resolved through the external symbol
+ * database.
+ */
+public class RPMStaticLinker {
+
+	private final ExternalSymbolDB esdb;
+	private final Map<String, LinkSegment> segments = new LinkedHashMap<>();
+
+	/**
+	 * Creates a linker.
+	 *
+	 * @param esdb The external symbol database of the target.
+	 */
+	public RPMStaticLinker(ExternalSymbolDB esdb) {
+		this.esdb = esdb;
+	}
+
+	/**
+	 * Adds a segment image to link into.
+	 *
+	 * @param name Name of the segment, as used by the relocation targets.
+	 * @param loadAddress Address that the first byte of the image is loaded at.
+	 * @param input The unpatched segment image.
+	 * @param output The file to write the patched image into. May be the input file.
+	 */
+	public void addSegment(String name, int loadAddress, File input, File output) {
+		if (esdb != null && esdb.getSegByName(name) == null) {
+			RPMLog.warn(() -> "Warning: Segment " + name + " is not in the external symbol database.");
+		}
+		segments.put(name, new LinkSegment(loadAddress, input, output));
+	}
+
+	/**
+	 * Applies the external relocations of an RPM into the segment images and writes the patched images.
+	 * Relocations into segments without an image or from unresolvable import symbols are skipped.
+	 *
+	 * @param rpm The RPM, with its base address set to where it will be loaded.
+	 * @return Number of relocations applied.
+	 * @throws IOException
+	 */
+	public int link(RPM rpm) throws IOException {
+		int applied = 0;
+		for (RPMExternalRelocationBatch batch : rpm.getExternalRelocationBatches()) {
+			LinkSegment seg = segments.get(batch.module);
+			if (seg == null) {
+				RPMLog.warn(() -> "Warning: No image for segment " + batch.module + ", skipping " + batch.size + " relocations.");
+				continue;
+			}
+			DataIOStream io = new DataIOStream(Files.readAllBytes(seg.input.toPath()));
+			io.setBase(seg.loadAddress);
+			for (int i = 0; i < batch.size; i++) {
+				RPMRelocation rel = batch.relocations[i];
+				if (rel.source.symb.isImportSymbol()) {
+					rel = resolveImport(rpm, rel);
+					if (rel == null) {
+						String name = batch.relocations[i].source.symb.name;
+						RPMLog.warn(() -> "Warning: Could not resolve import symbol " + name);
+						continue;
+					}
+				}
+				io.seekUnbased(batch.targetAddresses[i] - seg.loadAddress);
+				RPM.writeRelocationDataByType(rpm, rel, io);
+				applied++;
+			}
+			Files.write(seg.output.toPath(), io.toByteArray());
+			io.close();
+		}
+		return applied;
+	}
+
+	/**
+	 * Creates a copy of a relocation with its import symbol replaced by a global symbol at the address
+	 * from the external symbol database.
+	 */
+	private RPMRelocation resolveImport(RPM rpm, RPMRelocation rel) {
+		RPMSymbol imp = rel.source.symb;
+		if (esdb == null || imp.name == null || !esdb.isFuncExternal(imp.name)) {
+			return null;
+		}
+		int addr = esdb.getOffsetOfFunc(imp.name);
+		RPMSymbolType type = imp.type;
+		if ((addr & 1) != 0) {
+			type = RPMSymbolType.FUNCTION_THM;
+			addr &= ~1;
+		}
+		RPMRelocation resolved = new RPMRelocation();
+		resolved.target = rel.target;
+		resolved.source = new RPMRelocationSource(rpm, new RPMSymbol(rpm, imp.name, type, addr, true));
+		return resolved;
+	}
+
+	private static class LinkSegment {
+
+		public final int loadAddress;
+		public final File input;
+		public final File output;
+
+		public LinkSegment(int loadAddress, File input, File output) {
+			this.loadAddress = loadAddress;
+			this.input = input;
+			this.output = output;
+		}
+	}
+}